@@ -0,0 +1,166 @@
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Buffered binary input over an NIO channel, read in chunks rather than per char.
+ * Regular files of at least MAP_THRESHOLD bytes are memory-mapped window by window;
+ * anything else, such as a pipe, is read through one reusable buffer.
+ */
+public class BinaryChannelIn extends InputStream {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAP_THRESHOLD = 1L << 24;
+    private static final long MAP_WINDOW = 1L << 30;
+
+    private final ReadableByteChannel channel;
+    private final FileChannel file;    // non-null when the input is memory-mapped
+    private long mapped;               // position in file after the current window
+    private long size;
+    private ByteBuffer buffer;
+    private boolean eof;
+
+    public BinaryChannelIn(ReadableByteChannel channel) {
+
+        if (channel == null)
+            throw new IllegalArgumentException("Input channel is a null reference!");
+        this.channel = channel;
+
+        FileChannel file = null;
+        if (channel instanceof FileChannel) {
+            try {
+                FileChannel fc = (FileChannel) channel;
+                if (fc.size() - fc.position() >= MAP_THRESHOLD) {
+                    file = fc;
+                    mapped = fc.position();
+                    size = fc.size();
+                }
+            }
+            catch (IOException e) {
+                // not a regular file, fall back to buffered reads
+            }
+        }
+        this.file = file;
+
+        if (file == null) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+        }
+        else
+            buffer = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * standard input; memory-mapped when it is redirected from a large file
+     */
+    public static BinaryChannelIn stdin() {
+        return new BinaryChannelIn(new FileInputStream(FileDescriptor.in).getChannel());
+    }
+
+    /**
+     * total number of bytes left if known in advance, -1 otherwise
+     */
+    public long remaining() {
+        if (file == null)
+            return -1;
+        return size - mapped + buffer.remaining();
+    }
+
+    public boolean isEmpty() {
+        return !fill();
+    }
+
+    public byte readByte() {
+        if (!fill())
+            throw new NoSuchElementException("Reading from empty input");
+        return buffer.get();
+    }
+
+    public int readInt() {
+        int x = 0;
+        for (int i = 0; i < 4; i++)
+            x = (x << 8) | (readByte() & 0xff);
+        return x;
+    }
+
+    @Override
+    public int read() {
+        return fill() ? buffer.get() & 0xff : -1;
+    }
+
+    /**
+     * read up to len bytes into b[off:off+len], stopping early only at the end of input;
+     * -1 if the input is already empty
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        int n = 0;
+        while (n < len && fill()) {
+            int k = Math.min(len - n, buffer.remaining());
+            buffer.get(b, off + n, k);
+            n += k;
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    /**
+     * read everything that is left
+     */
+    public byte[] readAll() {
+        long remaining = remaining();
+        byte[] a = new byte[remaining >= 0 ? Math.toIntExact(remaining) : BUFFER_SIZE];
+        int n = 0;
+        while (fill()) {
+            if (n == a.length)
+                a = Arrays.copyOf(a, Math.toIntExact(Math.min(2L * a.length, Integer.MAX_VALUE - 8)));
+            n += read(a, n, a.length - n);
+        }
+        return n == a.length ? a : Arrays.copyOf(a, n);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // make sure the buffer has at least one byte; false at the end of input
+    private boolean fill() {
+        if (buffer.hasRemaining())
+            return true;
+        if (eof)
+            return false;
+        try {
+            if (file != null) {
+                if (mapped == size) {
+                    eof = true;
+                    return false;
+                }
+                long length = Math.min(MAP_WINDOW, size - mapped);
+                buffer = file.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+                mapped += length;
+                return true;
+            }
+            buffer.clear();
+            int n;
+            do {
+                n = channel.read(buffer);
+            } while (n == 0);
+            buffer.flip();
+            if (n < 0)
+                eof = true;
+            return n > 0;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered binary output over an NIO channel; every write goes into one
+ * reusable buffer which is drained to the channel when full.
+ */
+public class BinaryChannelOut extends OutputStream {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    public BinaryChannelOut(WritableByteChannel channel) {
+        if (channel == null)
+            throw new IllegalArgumentException("Output channel is a null reference!");
+        this.channel = channel;
+    }
+
+    /**
+     * standard output
+     */
+    public static BinaryChannelOut stdout() {
+        return new BinaryChannelOut(new FileOutputStream(FileDescriptor.out).getChannel());
+    }
+
+    @Override
+    public void write(int b) {
+        if (!buffer.hasRemaining())
+            drain();
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (!buffer.hasRemaining())
+                drain();
+            int k = Math.min(len, buffer.remaining());
+            buffer.put(b, off, k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    public void writeInt(int x) {
+        write(x >>> 24);
+        write(x >>> 16);
+        write(x >>> 8);
+        write(x);
+    }
+
+    @Override
+    public void flush() {
+        drain();
+    }
+
+    @Override
+    public void close() {
+        drain();
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // write out the buffer and make it empty again
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+}
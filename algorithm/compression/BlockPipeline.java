@@ -0,0 +1,64 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs independent blocks through a chain of stages on a thread pool.
+ * Blocks are read and written on the calling thread in input order,
+ * while each stage of each block runs as its own task, so reading,
+ * the stages and writing of different blocks overlap.
+ */
+public class BlockPipeline {
+
+    private BlockPipeline() { }
+
+    /**
+     * read blocks from source until it returns null, apply the stages to each
+     * block in order and hand the results to sink in the order they were read
+     */
+    @SafeVarargs
+    public static void run(int threads, Supplier<byte[]> source, Consumer<byte[]> sink, UnaryOperator<byte[]>... stages) {
+
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads should be at least 1");
+
+        // bound the number of blocks in flight so memory stays proportional to threads
+        int window = 2 * threads;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+        try {
+            byte[] block;
+            while ((block = source.get()) != null) {
+                CompletableFuture<byte[]> future = CompletableFuture.completedFuture(block);
+                for (UnaryOperator<byte[]> stage : stages)
+                    future = future.thenApplyAsync(stage, pool);
+                inFlight.add(future);
+                if (inFlight.size() >= window)
+                    sink.accept(join(inFlight.remove()));
+            }
+            while (!inFlight.isEmpty())
+                sink.accept(join(inFlight.remove()));
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // rethrow the original exception of a failed stage
+    private static byte[] join(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
+}
@@ -1,60 +1,193 @@
-import edu.princeton.cs.algs4.BinaryStdIn;
-import edu.princeton.cs.algs4.BinaryStdOut;
+import java.nio.charset.StandardCharsets;
 
 
 public class BurrowsWheeler {
 
     private static final int R = 256;
 
+    // block sizes accepted by the block mode, bzip2-style
+    static final int MIN_BLOCK_SIZE = 100 * 1024;
+    static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+    static final int DEFAULT_BLOCK_SIZE = 900 * 1024;
+
+    // largest block whose rows fit in the low 24 bits of an int
+    private static final int PACKED_LIMIT = 1 << 24;
+
     public static void transform() {
 
-        String s = BinaryStdIn.readString();
-        CircularSuffixArray csa = new CircularSuffixArray(s);
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
 
-        // position of the original string in the sorted suffix array
-        int first;
-        for (first = 0; first < s.length(); first++)
-            if (csa.index(first) == 0)
-                break;
-        BinaryStdOut.write(first);
+        byte[] a = in.readAll();
+        byte[] t = new byte[a.length];
+        int first = transform(a, a.length, t);
 
-        // write the transformed sequence
-        for (int i = 0; i < s.length(); i++)
-            BinaryStdOut.write(s.charAt((csa.index(i) + s.length() - 1) % s.length()));
+        // write the position of the original string and the transformed sequence
+        out.writeInt(first);
+        out.write(t, 0, t.length);
 
-        BinaryStdOut.close();
+        out.close();
     }
 
     public static void inverseTransform() {
 
-        int first = BinaryStdIn.readInt();
-        char[] t = BinaryStdIn.readString().toCharArray();
-        int N = t.length;
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
 
-        // get count array for key-index counting sort
-        int[] count = new int[R+1];
-        for (int i = 0; i < N; i++)
-            count[t[i]+1]++;
-        for (int r = 0; r < R; r++)
-            count[r+1] += count[r];
+        int first = in.readInt();
+        byte[] t = in.readAll();
+        inverseTransform(t, t.length, first, t);
+        out.write(t, 0, t.length);
 
+        out.close();
+    }
 
-        // get first column of sorted suffixes (ie sorted t[]) and next[]
-        char[] aux = new char[N];
-        int[] next = new int[N];
-        for (int i = 0; i < N; i++) {
-            next[count[t[i]]] = i;
-            aux[count[t[i]]++] = t[i];
+    /**
+     * block mode: split standard input into blocks of at most blockSize bytes
+     * and write each one as (first, length, transformed bytes), so memory
+     * stays bounded by the block size whatever the input size
+     */
+    public static void transform(int blockSize) {
+
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size should be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
+
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
+
+        byte[] block = new byte[blockSize];
+        byte[] t = new byte[blockSize];
+        int n;
+        while ((n = in.read(block, 0, blockSize)) > 0) {
+            int first = transform(block, n, t);
+            out.writeInt(first);
+            out.writeInt(n);
+            out.write(t, 0, n);
         }
 
-        // reconstruct the sequence and write to StdOut
-        for (int i = 0; i < N; i++) {
-            BinaryStdOut.write(aux[first]);
-            first = next[first];
+        out.close();
+    }
+
+    /**
+     * block mode: invert the output of transform(blockSize) one block at a time
+     */
+    public static void inverseTransformBlocks() {
+
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
+
+        byte[] t = new byte[0];
+        while (!in.isEmpty()) {
+            int first = in.readInt();
+            int n = in.readInt();
+            if (n <= 0 || n > MAX_BLOCK_SIZE || first < 0 || first >= n)
+                throw new IllegalArgumentException("Corrupted block header!");
+
+            // the buffer only grows up to the largest block seen
+            if (n > t.length)
+                t = new byte[n];
+            if (in.read(t, 0, n) != n)
+                throw new IllegalArgumentException("Truncated block!");
+
+            inverseTransform(t, n, first, t);
+            out.write(t, 0, n);
         }
 
-        BinaryStdOut.close();
+        out.close();
+    }
+
+    /**
+     * transform a[0:n] into t[0:n] and return the position of the original
+     * string in the sorted suffix array
+     */
+    static int transform(byte[] a, int n, byte[] t) {
 
+        // bytes map one-to-one onto Latin-1 chars, which Java stores compactly
+        String s = new String(a, 0, n, StandardCharsets.ISO_8859_1);
+        CircularSuffixArray csa = new CircularSuffixArray(s);
+
+        int first = 0;
+        for (int i = 0; i < n; i++) {
+            int index = csa.index(i);
+            if (index == 0)
+                first = i;
+            t[i] = a[(index + n - 1) % n];
+        }
+        return first;
+    }
+
+    /**
+     * invert t[0:n] with the given first into a[0:n]; a may be t itself,
+     * in which case the whole inversion needs 4 extra bytes per input byte
+     */
+    static void inverseTransform(byte[] t, int n, int first, byte[] a) {
+
+        if (n == 0)
+            return;
+
+        int[] count = count(t, n);
+
+        if (n <= PACKED_LIMIT) {
+
+            // next[row] packs the first-column character of row in its high 8 bits
+            // above the row of its successor, so each step touches a single int
+            int[] next = new int[n];
+            for (int i = 0; i < n; i++) {
+                int c = t[i] & 0xff;
+                next[count[c]++] = c << 24 | i;
+            }
+
+            // t[] is no longer needed, so a[] may overwrite it
+            int x = next[first];
+            for (int i = 0; i < n; i++) {
+                a[i] = (byte) (x >>> 24);
+                x = next[x & PACKED_LIMIT - 1];
+            }
+        }
+        else {
+
+            // rows need all 32 bits, so the character of a row is found in
+            // the count array instead: the first column is t[] sorted
+            int[] start = count.clone();
+            int[] next = new int[n];
+            for (int i = 0; i < n; i++)
+                next[count[t[i] & 0xff]++] = i;
+
+            for (int i = 0; i < n; i++) {
+                a[i] = (byte) characterAt(start, first);
+                first = next[first];
+            }
+        }
+    }
+
+    /**
+     * count[r] is the number of characters less than r in t[0:n],
+     * ie the first row starting with r in the sorted suffix array
+     */
+    static int[] count(byte[] t, int n) {
+
+        int[] count = new int[R+1];
+        for (int i = 0; i < n; i++)
+            count[(t[i] & 0xff)+1]++;
+        for (int r = 0; r < R; r++)
+            count[r+1] += count[r];
+        return count;
+    }
+
+    /**
+     * character of the first column at the given row, by binary search in count[]
+     */
+    static int characterAt(int[] count, int row) {
+
+        int lo = 0, hi = R-1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (count[mid] <= row)
+                lo = mid;
+            else
+                hi = mid-1;
+        }
+        return lo;
     }
 
     public static void main(String[] args) {
@@ -62,5 +195,9 @@ public class BurrowsWheeler {
             transform();
         else if (args[0].equals("+"))
             inverseTransform();
+        else if (args[0].equals("-b"))
+            transform(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BLOCK_SIZE);
+        else if (args[0].equals("+b"))
+            inverseTransformBlocks();
     } 
 }
\ No newline at end of file
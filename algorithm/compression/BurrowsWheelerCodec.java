@@ -0,0 +1,387 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.PriorityQueue;
+
+/**
+ * In-process block compressor chaining the Burrows-Wheeler transform,
+ * move-to-front, zero run-length coding and canonical Huffman coding
+ * over in-memory buffers.
+ *
+ * Compressed format: a sequence of blocks, each framed by its encoded length,
+ * then (n, first, number of symbols, SYMBOLS code lengths, Huffman bits).
+ */
+public class BurrowsWheelerCodec {
+
+    // zero runs are written in bijective base 2 with RUNA and RUNB,
+    // move-to-front value v > 0 becomes symbol v+1
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+    private static final int SYMBOLS = 258;
+
+    // longest Huffman code, so a code always fits in the bit buffer
+    private static final int MAX_LENGTH = 20;
+
+    private static final int HEADER = 12 + SYMBOLS;
+
+    private BurrowsWheelerCodec() { }
+
+    public static void compress(InputStream in, OutputStream out) throws IOException {
+        compress(in, out, BurrowsWheeler.DEFAULT_BLOCK_SIZE, 1);
+    }
+
+    public static void expand(InputStream in, OutputStream out) throws IOException {
+        expand(in, out, 1);
+    }
+
+    /**
+     * compress in to out in blocks of blockSize bytes, encoding up to threads blocks at a time
+     */
+    public static void compress(InputStream in, OutputStream out, int blockSize, int threads) throws IOException {
+
+        if (in == null || out == null)
+            throw new IllegalArgumentException("Input arguments are null references!");
+        if (blockSize < BurrowsWheeler.MIN_BLOCK_SIZE || blockSize > BurrowsWheeler.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size should be between " + BurrowsWheeler.MIN_BLOCK_SIZE + " and " + BurrowsWheeler.MAX_BLOCK_SIZE);
+
+        if (threads == 1) {
+            byte[] block;
+            while ((block = readBlock(in, blockSize)) != null)
+                writeFrame(out, encodeBlock(block));
+        }
+        else {
+            try {
+                BlockPipeline.run(threads,
+                    () -> { try { return readBlock(in, blockSize); } catch (IOException e) { throw new UncheckedIOException(e); } },
+                    block -> { try { writeFrame(out, block); } catch (IOException e) { throw new UncheckedIOException(e); } },
+                    BurrowsWheelerCodec::encodeBlock);
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * expand the output of compress() from in to out, decoding up to threads blocks at a time
+     */
+    public static void expand(InputStream in, OutputStream out, int threads) throws IOException {
+
+        if (in == null || out == null)
+            throw new IllegalArgumentException("Input arguments are null references!");
+
+        if (threads == 1) {
+            byte[] block;
+            while ((block = readFrame(in)) != null)
+                out.write(decodeBlock(block));
+        }
+        else {
+            try {
+                BlockPipeline.run(threads,
+                    () -> { try { return readFrame(in); } catch (IOException e) { throw new UncheckedIOException(e); } },
+                    block -> { try { out.write(block); } catch (IOException e) { throw new UncheckedIOException(e); } },
+                    BurrowsWheelerCodec::decodeBlock);
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * encode one block of raw bytes
+     */
+    static byte[] encodeBlock(byte[] a) {
+
+        int n = a.length;
+
+        // Burrows-Wheeler transform and move-to-front, in place on t[]
+        byte[] t = new byte[n];
+        int first = BurrowsWheeler.transform(a, n, t);
+        MoveToFront.encode(t, 0, n);
+
+        // zero run-length coding; a run of length L takes about lg L symbols
+        char[] symbols = new char[n];
+        int m = 0;
+        for (int i = 0; i < n; ) {
+            if (t[i] == 0) {
+                int run = 0;
+                while (i < n && t[i] == 0) {
+                    run++;
+                    i++;
+                }
+                while (run > 0) {
+                    if ((run & 1) == 1) {
+                        symbols[m++] = RUNA;
+                        run = (run-1) >> 1;
+                    }
+                    else {
+                        symbols[m++] = RUNB;
+                        run = (run-2) >> 1;
+                    }
+                }
+            }
+            else
+                symbols[m++] = (char) ((t[i++] & 0xff) + 1);
+        }
+
+        // canonical Huffman code over the symbols
+        int[] freq = new int[SYMBOLS];
+        for (int i = 0; i < m; i++)
+            freq[symbols[i]]++;
+        int[] length = codeLengths(freq);
+        int[] code = canonicalCodes(length);
+
+        long bits = 0;
+        for (int r = 0; r < SYMBOLS; r++)
+            bits += (long) freq[r] * length[r];
+        byte[] out = new byte[HEADER + (int) ((bits + 7) / 8)];
+        putInt(out, 0, n);
+        putInt(out, 4, first);
+        putInt(out, 8, m);
+        for (int r = 0; r < SYMBOLS; r++)
+            out[12 + r] = (byte) length[r];
+
+        // pack codes msb first
+        int pos = HEADER;
+        long buffer = 0;
+        int count = 0;
+        for (int i = 0; i < m; i++) {
+            buffer = (buffer << length[symbols[i]]) | code[symbols[i]];
+            count += length[symbols[i]];
+            while (count >= 8) {
+                count -= 8;
+                out[pos++] = (byte) (buffer >>> count);
+            }
+        }
+        if (count > 0)
+            out[pos] = (byte) (buffer << (8 - count));
+
+        return out;
+    }
+
+    /**
+     * decode one block produced by encodeBlock()
+     */
+    static byte[] decodeBlock(byte[] in) {
+
+        if (in.length < HEADER)
+            throw new IllegalArgumentException("Corrupted block header!");
+        int n = getInt(in, 0);
+        int first = getInt(in, 4);
+        int m = getInt(in, 8);
+        if (n <= 0 || n > BurrowsWheeler.MAX_BLOCK_SIZE || first < 0 || first >= n || m < 0 || m > n)
+            throw new IllegalArgumentException("Corrupted block header!");
+        int[] length = new int[SYMBOLS];
+        for (int r = 0; r < SYMBOLS; r++) {
+            length[r] = in[12 + r];
+            if (length[r] < 0 || length[r] > MAX_LENGTH)
+                throw new IllegalArgumentException("Corrupted block header!");
+        }
+
+        // canonical decoding tables: codes of each length are consecutive
+        // and assigned to the symbols of that length in increasing order
+        int[] lengthCount = new int[MAX_LENGTH+1];
+        for (int r = 0; r < SYMBOLS; r++)
+            lengthCount[length[r]]++;
+        lengthCount[0] = 0;
+        int[] offset = new int[MAX_LENGTH+2];
+        for (int len = 1; len <= MAX_LENGTH; len++)
+            offset[len+1] = offset[len] + lengthCount[len];
+        int[] sorted = new int[offset[MAX_LENGTH+1]];
+        int[] next = offset.clone();
+        for (int r = 0; r < SYMBOLS; r++)
+            if (length[r] > 0)
+                sorted[next[length[r]]++] = r;
+        int[] firstCode = new int[MAX_LENGTH+1];
+        int c = 0;
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            c = (c + lengthCount[len-1]) << 1;
+            firstCode[len] = c;
+        }
+
+        // Huffman decoding and run-length expansion into t[]
+        byte[] t = new byte[n];
+        int k = 0;
+        long pos = (long) HEADER << 3;
+        long end = (long) in.length << 3;
+        int run = 0, weight = 1;
+        for (int i = 0; i < m; i++) {
+            int value = 0, len = 0;
+            do {
+                if (++len > MAX_LENGTH || pos >= end)
+                    throw new IllegalArgumentException("Corrupted block data!");
+                value = (value << 1) | ((in[(int) (pos >> 3)] >> (7 - (int) (pos & 7))) & 1);
+                pos++;
+            } while (value - firstCode[len] >= lengthCount[len]);
+            int symbol = sorted[offset[len] + value - firstCode[len]];
+
+            if (symbol == RUNA || symbol == RUNB) {
+                run += symbol == RUNA ? weight : 2 * weight;
+                weight <<= 1;
+                if (run > n - k)
+                    throw new IllegalArgumentException("Corrupted block data!");
+                continue;
+            }
+            k += run;
+            run = 0;
+            weight = 1;
+            if (k >= n)
+                throw new IllegalArgumentException("Corrupted block data!");
+            t[k++] = (byte) (symbol - 1);
+        }
+        k += run;
+        if (k != n)
+            throw new IllegalArgumentException("Corrupted block data!");
+
+        // undo move-to-front and the Burrows-Wheeler transform
+        MoveToFront.decode(t, 0, n);
+        BurrowsWheeler.inverseTransform(t, n, first, t);
+        return t;
+    }
+
+    /**
+     * Huffman code lengths for the given frequencies, at most MAX_LENGTH bits;
+     * frequencies are flattened until the longest code fits
+     */
+    private static int[] codeLengths(int[] freq) {
+
+        int[] length = new int[SYMBOLS];
+        long[] weight = new long[SYMBOLS];
+        for (int r = 0; r < SYMBOLS; r++)
+            weight[r] = freq[r];
+
+        while (true) {
+
+            // build the trie with nodes SYMBOLS.. as internal nodes
+            int[] parent = new int[2 * SYMBOLS];
+            PriorityQueue<long[]> pq = new PriorityQueue<>((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+            for (int r = 0; r < SYMBOLS; r++)
+                if (weight[r] > 0)
+                    pq.add(new long[]{weight[r], r});
+
+            // a single symbol still needs a one-bit code
+            if (pq.size() == 1) {
+                length[(int) pq.peek()[1]] = 1;
+                return length;
+            }
+
+            int node = SYMBOLS;
+            while (pq.size() > 1) {
+                long[] x = pq.remove();
+                long[] y = pq.remove();
+                parent[(int) x[1]] = node;
+                parent[(int) y[1]] = node;
+                pq.add(new long[]{x[0] + y[0], node++});
+            }
+            int root = node - 1;
+
+            int maxLength = 0;
+            for (int r = 0; r < SYMBOLS; r++) {
+                length[r] = 0;
+                if (weight[r] == 0)
+                    continue;
+                for (int x = r; x != root; x = parent[x])
+                    length[r]++;
+                maxLength = Math.max(maxLength, length[r]);
+            }
+            if (maxLength <= MAX_LENGTH)
+                return length;
+
+            for (int r = 0; r < SYMBOLS; r++)
+                if (weight[r] > 0)
+                    weight[r] = 1 + weight[r] / 2;
+        }
+    }
+
+    /**
+     * assign canonical codes: shorter codes first, ties broken by symbol
+     */
+    private static int[] canonicalCodes(int[] length) {
+
+        int[] lengthCount = new int[MAX_LENGTH+1];
+        for (int r = 0; r < SYMBOLS; r++)
+            lengthCount[length[r]]++;
+        lengthCount[0] = 0;
+
+        int[] nextCode = new int[MAX_LENGTH+1];
+        int c = 0;
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            c = (c + lengthCount[len-1]) << 1;
+            nextCode[len] = c;
+        }
+
+        int[] code = new int[SYMBOLS];
+        for (int r = 0; r < SYMBOLS; r++)
+            if (length[r] > 0)
+                code[r] = nextCode[length[r]]++;
+        return code;
+    }
+
+    // read up to blockSize bytes; null at the end of input
+    private static byte[] readBlock(InputStream in, int blockSize) throws IOException {
+        byte[] block = new byte[blockSize];
+        int n = in.readNBytes(block, 0, blockSize);
+        if (n == 0)
+            return null;
+        if (n == blockSize)
+            return block;
+        byte[] last = new byte[n];
+        System.arraycopy(block, 0, last, 0, n);
+        return last;
+    }
+
+    // read one length-framed block; null at the end of input
+    private static byte[] readFrame(InputStream in) throws IOException {
+        byte[] header = new byte[4];
+        int read = in.readNBytes(header, 0, 4);
+        if (read == 0)
+            return null;
+        int length = getInt(header, 0);
+        if (read < 4 || length < HEADER)
+            throw new IllegalArgumentException("Corrupted block header!");
+        byte[] block = new byte[length];
+        if (in.readNBytes(block, 0, length) < length)
+            throw new IllegalArgumentException("Truncated block!");
+        return block;
+    }
+
+    private static void writeFrame(OutputStream out, byte[] block) throws IOException {
+        byte[] header = new byte[4];
+        putInt(header, 0, block.length);
+        out.write(header);
+        out.write(block);
+    }
+
+    private static void putInt(byte[] a, int i, int x) {
+        a[i]   = (byte) (x >>> 24);
+        a[i+1] = (byte) (x >>> 16);
+        a[i+2] = (byte) (x >>> 8);
+        a[i+3] = (byte) x;
+    }
+
+    private static int getInt(byte[] a, int i) {
+        return (a[i] & 0xff) << 24 | (a[i+1] & 0xff) << 16 | (a[i+2] & 0xff) << 8 | (a[i+3] & 0xff);
+    }
+
+    public static void main(String[] args) throws IOException {
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args[0].equals("-")) {
+            int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : BurrowsWheeler.DEFAULT_BLOCK_SIZE;
+            if (args.length > 2)
+                threads = Integer.parseInt(args[2]);
+            compress(in, out, blockSize, threads);
+        }
+        else if (args[0].equals("+")) {
+            if (args.length > 1)
+                threads = Integer.parseInt(args[1]);
+            expand(in, out, threads);
+        }
+        out.close();
+    }
+}
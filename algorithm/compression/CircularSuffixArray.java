@@ -1,5 +1,11 @@
+import java.util.Arrays;
+
 public class CircularSuffixArray {
 
+    // strings shorter than this are sorted by 3-way radix quicksort,
+    // longer ones by prefix doubling which is O(n log n) on any input
+    private static final int CUTOFF = 1 << 10;
+
     private final String s;
     private int[] suffixArray;
 
@@ -10,11 +16,14 @@ public class CircularSuffixArray {
 
         this.s = s;
         
-        suffixArray = new int[s.length()];
-        for (int i = 0; i < suffixArray.length; i++)
-            suffixArray[i] = i;
-
-        sortSuffixArray(0, s.length()-1, 0);
+        if (s.length() < CUTOFF) {
+            suffixArray = new int[s.length()];
+            for (int i = 0; i < suffixArray.length; i++)
+                suffixArray[i] = i;
+            sortSuffixArray(0, s.length()-1, 0);
+        }
+        else
+            suffixArray = doubling();
 
     }
 
@@ -60,6 +69,70 @@ public class CircularSuffixArray {
         sortSuffixArray(gt+1, hi, d);
     }
 
+    /**
+     * sort the circular suffixes by prefix doubling:
+     * after the pass with step h, suffixes are sorted by their first 2h characters,
+     * and each pass is a stable key-indexed counting sort on the rank of the first half
+     */
+    private int[] doubling() {
+
+        int n = s.length();
+        int[] sa = new int[n];
+        int[] rank = new int[n];
+        int[] aux = new int[n];
+
+        // initial pass: key-indexed counting on the first character
+        int R = 0;
+        for (int i = 0; i < n; i++)
+            R = Math.max(R, s.charAt(i)+1);
+        int[] count = new int[Math.max(R, n)+1];
+        for (int i = 0; i < n; i++)
+            count[s.charAt(i)+1]++;
+        for (int r = 0; r < R; r++)
+            count[r+1] += count[r];
+        for (int i = 0; i < n; i++)
+            sa[count[s.charAt(i)]++] = i;
+        int classes = 0;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && s.charAt(sa[i]) != s.charAt(sa[i-1]))
+                classes++;
+            rank[sa[i]] = classes;
+        }
+        classes++;
+
+        for (int h = 1; h < n && classes < n; h <<= 1) {
+
+            // sa[] is sorted by the first h characters, so shifting every suffix
+            // back by h gives the order of the second halves for free
+            for (int i = 0; i < n; i++)
+                aux[i] = (sa[i] - h + n) % n;
+
+            // stable counting sort by the rank of the first half
+            Arrays.fill(count, 0, classes+1, 0);
+            for (int i = 0; i < n; i++)
+                count[rank[aux[i]]+1]++;
+            for (int r = 0; r < classes; r++)
+                count[r+1] += count[r];
+            for (int i = 0; i < n; i++)
+                sa[count[rank[aux[i]]]++] = aux[i];
+
+            // recompute ranks on pairs (rank[i], rank[i+h]); aux[] now holds the new ranks
+            aux[sa[0]] = 0;
+            classes = 1;
+            for (int i = 1; i < n; i++) {
+                int cur = sa[i], prev = sa[i-1];
+                if (rank[cur] != rank[prev] || rank[(cur+h) % n] != rank[(prev+h) % n])
+                    classes++;
+                aux[cur] = classes-1;
+            }
+            int[] temp = rank;
+            rank = aux;
+            aux = temp;
+        }
+
+        return sa;
+    }
+
     /**
      * get the d-th character of the circular suffix starting from s[i]
      */
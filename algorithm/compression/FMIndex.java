@@ -0,0 +1,400 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sampled occurrence and suffix array index over the output of a
+ * Burrows-Wheeler transform, answering count(), locate() and extract()
+ * by backward search without inverting the whole block.
+ *
+ * The text is circular, as in the transform, so an occurrence may wrap
+ * around from the end of the text to its start.
+ *
+ * Occurrences are counted in two levels: an int count of every byte value
+ * every SUPER_RATE rows, and a 16-bit count relative to it every OCC_RATE
+ * rows. The rest of a block is scanned eight bytes at a time, from the
+ * nearer of its two checkpoints. With the position samples, the index is
+ * about 0.7 bytes per byte of text.
+ */
+public class FMIndex {
+
+    private static final int R = 256;
+    private static final int MAGIC = 0x464d4932;    // "FMI2"
+
+    // one occurrence checkpoint every OCC_RATE rows within a superblock of SUPER_RATE
+    // rows, so that it fits in a char; one text position every SA_RATE
+    private static final int SUPER_RATE = 1 << 16;
+    private static final int OCC_RATE = 2048;
+    private static final int SA_RATE = 32;
+
+    // eight bytes of the text at a time, in any order
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+
+    private final byte[] t;          // last column, the transformed bytes
+    private final int n;
+    private final int first;
+    private final int period;        // length of the shortest string the text is a power of
+    private final int[] count;       // count[c] is the first row starting with c
+    private final int[] superOcc;    // superOcc[s*R + c] is the number of c in t[0:s*SUPER_RATE]
+    private final char[] occ;        // occ[k*R + c] is the number of c in t[s*SUPER_RATE:k*OCC_RATE], s its superblock
+    private final long[] sampled;    // rows whose position in its copy is a multiple of SA_RATE
+    private final int[] rank;        // rank[k] is the number of sampled rows before row 64k
+    private final int[] position;    // text positions of the sampled rows, in row order
+    private final int[] rowOf;       // row of each sampled position, copy by copy
+
+    /**
+     * index t[0:n], the transform of a text whose original string sits at row first
+     */
+    public FMIndex(byte[] t, int n, int first) {
+
+        if (t == null)
+            throw new IllegalArgumentException("Input array is a null reference!");
+        if (n <= 0 || n > t.length || first < 0 || first >= n)
+            throw new IllegalArgumentException("Invalid length or first!");
+
+        this.t = t;
+        this.n = n;
+        this.first = first;
+
+        // the same count array the inverse transform starts from
+        count = BurrowsWheeler.count(t, n);
+
+        // occurrence checkpoints, at every multiple of OCC_RATE up to n
+        superOcc = new int[(n / SUPER_RATE + 1) * R];
+        occ = new char[(n / OCC_RATE + 1) * R];
+        int[] running = new int[R];
+        for (int i = 0; i <= n; i++) {
+            if (i % SUPER_RATE == 0)
+                System.arraycopy(running, 0, superOcc, (i / SUPER_RATE) * R, R);
+            if (i % OCC_RATE == 0) {
+                int k = i / OCC_RATE, s = i / SUPER_RATE;
+                for (int c = 0; c < R; c++)
+                    occ[k * R + c] = (char) (running[c] - superOcc[s * R + c]);
+            }
+            if (i < n)
+                running[t[i] & 0xff]++;
+        }
+
+        // walk the rows in text order, as the inverse transform does
+        int[] next = new int[n];
+        int[] cursor = count.clone();
+        for (int i = 0; i < n; i++)
+            next[cursor[t[i] & 0xff]++] = i;
+
+        // a text made of q copies of a string of length period has q identical
+        // rows per rotation, in runs of q consecutive rows, and the walk from first
+        // only meets the one at offset first % q of each run
+        int steps = 1;
+        for (int row = next[first]; row != first; row = next[row])
+            steps++;
+        period = steps;
+        int q = n / period;
+        int offset = first % q;
+
+        // sample every SA_RATE-th position of each copy, giving copy c
+        // of each rotation the row at offset (first + c) % q in its run
+        int samples = (period + SA_RATE - 1) / SA_RATE;
+        sampled = new long[(n + 63) / 64];
+        rowOf = new int[q * samples];
+        int row = first;
+        for (int k = 0; k < period; k++) {
+            if (k % SA_RATE == 0)
+                for (int c = 0; c < q; c++) {
+                    int r = row - offset + (offset + c) % q;
+                    sampled[r >>> 6] |= 1L << (r & 63);
+                    rowOf[c * samples + k / SA_RATE] = r;
+                }
+            row = next[row];
+        }
+
+        rank = new int[sampled.length + 1];
+        for (int w = 0; w < sampled.length; w++)
+            rank[w+1] = rank[w] + Long.bitCount(sampled[w]);
+
+        position = new int[rowOf.length];
+        for (int i = 0; i < rowOf.length; i++)
+            position[rankOf(rowOf[i])] = (i / samples) * period + (i % samples) * SA_RATE;
+    }
+
+    private FMIndex(byte[] t, int n, int first, int period, int[] count, int[] superOcc, char[] occ, long[] sampled, int[] rank, int[] position, int[] rowOf) {
+        this.t = t;
+        this.n = n;
+        this.first = first;
+        this.period = period;
+        this.count = count;
+        this.superOcc = superOcc;
+        this.occ = occ;
+        this.sampled = sampled;
+        this.rank = rank;
+        this.position = position;
+        this.rowOf = rowOf;
+    }
+
+    public int length() {
+        return n;
+    }
+
+    /**
+     * number of occurrences of pattern in the text
+     */
+    public int count(byte[] pattern) {
+        int[] range = search(pattern);
+        return range[1] - range[0];
+    }
+
+    /**
+     * text positions of all occurrences of pattern, in increasing order
+     */
+    public int[] locate(byte[] pattern) {
+
+        int[] range = search(pattern);
+        int[] positions = new int[range[1] - range[0]];
+        for (int r = range[0]; r < range[1]; r++) {
+
+            // step back in the text until a sampled position
+            int row = r, steps = 0;
+            while (!isSampled(row)) {
+                row = lf(row);
+                steps++;
+            }
+            // stepping back stays within one copy of the period
+            int p = position[rankOf(row)];
+            positions[r - range[0]] = p - p % period + (p % period + steps) % period;
+        }
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    /**
+     * the text from position from (inclusive) to position to (exclusive)
+     */
+    public byte[] extract(int from, int to) {
+
+        if (from < 0 || to > n || from > to)
+            throw new IllegalArgumentException("Invalid range: should be 0 <= from <= to <= " + n);
+
+        // start at the first sampled position at or after to, and step back;
+        // position n is position 0 again
+        int samples = (period + SA_RATE - 1) / SA_RATE;
+        int c = to / period;
+        int k = (to % period + SA_RATE - 1) / SA_RATE;
+        if (k == samples) {
+            c++;
+            k = 0;
+        }
+        int pos = c * period + k * SA_RATE;
+        int row = pos < n ? rowOf[c * samples + k] : first;
+
+        byte[] s = new byte[to - from];
+        while (pos > from) {
+            // t[row] is the character just before the row's text position
+            pos--;
+            if (pos < to)
+                s[pos - from] = t[row];
+            row = lf(row);
+        }
+        return s;
+    }
+
+    /**
+     * write the index, without the transformed bytes, to the given file
+     */
+    public void save(String filename) {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int[] header = {MAGIC, n, first, period, SUPER_RATE, OCC_RATE, SA_RATE};
+            writeInts(channel, header);
+            writeInts(channel, count);
+            writeInts(channel, superOcc);
+            writeInts(channel, rank);
+            writeInts(channel, position);
+            writeInts(channel, rowOf);
+            writeChars(channel, occ);
+            ByteBuffer buffer = ByteBuffer.allocate(8 * sampled.length);
+            buffer.asLongBuffer().put(sampled);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * read an index written by save() for the transformed bytes t[0:n]
+     */
+    public static FMIndex load(String filename, byte[] t, int n) {
+
+        if (t == null || filename == null)
+            throw new IllegalArgumentException("Input arguments are null references!");
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            IntBuffer ints = buffer.asIntBuffer();
+            if (ints.get() != MAGIC || ints.get() != n)
+                throw new IllegalArgumentException("Index does not match the transformed input!");
+            int first = ints.get();
+            int period = ints.get();
+            if (ints.get() != SUPER_RATE || ints.get() != OCC_RATE || ints.get() != SA_RATE
+                || first < 0 || first >= n || period <= 0 || n % period != 0)
+                throw new IllegalArgumentException("Corrupted index header!");
+
+            int words = (n + 63) / 64;
+            int samples = n / period * ((period + SA_RATE - 1) / SA_RATE);
+            int[] count = readInts(ints, R+1);
+            int[] superOcc = readInts(ints, (n / SUPER_RATE + 1) * R);
+            int[] rank = readInts(ints, words + 1);
+            int[] position = readInts(ints, samples);
+            int[] rowOf = readInts(ints, samples);
+            buffer.position(4 * ints.position());
+            CharBuffer chars = buffer.slice().asCharBuffer();
+            char[] occ = new char[(n / OCC_RATE + 1) * R];
+            chars.get(occ);
+            buffer.position(buffer.position() + 2 * occ.length);
+            LongBuffer longs = buffer.slice().asLongBuffer();
+            long[] sampled = new long[words];
+            longs.get(sampled);
+
+            return new FMIndex(t, n, first, period, count, superOcc, occ, sampled, rank, position, rowOf);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // rows [lo, hi) of the sorted suffixes starting with pattern, by backward search
+    private int[] search(byte[] pattern) {
+
+        if (pattern == null)
+            throw new IllegalArgumentException("Pattern is a null reference!");
+
+        int lo = 0, hi = n;
+        for (int i = pattern.length-1; i >= 0 && lo < hi; i--) {
+            int c = pattern[i] & 0xff;
+            lo = count[c] + occ(c, lo);
+            hi = count[c] + occ(c, hi);
+        }
+        if (lo > hi)
+            hi = lo;
+        return new int[]{lo, hi};
+    }
+
+    // number of c in t[0:row]
+    private int occ(int c, int row) {
+        int k = row / OCC_RATE;
+        int from = k * OCC_RATE, to = from + OCC_RATE;
+        if (row - from <= to - row || to > n)
+            return checkpoint(c, k) + countIn(c, from, row);
+        return checkpoint(c, k+1) - countIn(c, row, to);
+    }
+
+    // number of c in t[0:k*OCC_RATE]
+    private int checkpoint(int c, int k) {
+        return superOcc[(k * OCC_RATE / SUPER_RATE) * R + c] + occ[k * R + c];
+    }
+
+    // number of c in t[from:to]
+    private int countIn(int c, int from, int to) {
+        long pattern = c * ONES;
+        int sum = 0, i = from;
+        for (; i + 8 <= to; i += 8) {
+            // a byte of x is zero where t has c; the high bit of each byte of
+            // zero is set, and only those, with no carry between bytes
+            long x = (long) LONGS.get(t, i) ^ pattern;
+            long zero = ~(((x & LOW7) + LOW7) | x | LOW7);
+            sum += Long.bitCount(zero);
+        }
+        for (; i < to; i++)
+            if ((t[i] & 0xff) == c)
+                sum++;
+        return sum;
+    }
+
+    // row of the text position just before the one of row
+    private int lf(int row) {
+        int c = t[row] & 0xff;
+        return count[c] + occ(c, row);
+    }
+
+    private boolean isSampled(int row) {
+        return (sampled[row >>> 6] & (1L << (row & 63))) != 0;
+    }
+
+    // number of sampled rows before row
+    private int rankOf(int row) {
+        return rank[row >>> 6] + Long.bitCount(sampled[row >>> 6] & ((1L << (row & 63)) - 1));
+    }
+
+    private static void writeInts(FileChannel channel, int[] a) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        IntBuffer ints = buffer.asIntBuffer();
+        for (int i = 0; i < a.length; ) {
+            int k = Math.min(ints.capacity(), a.length - i);
+            ints.clear();
+            ints.put(a, i, k);
+            buffer.clear().limit(4 * k);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            i += k;
+        }
+    }
+
+    private static void writeChars(FileChannel channel, char[] a) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        CharBuffer chars = buffer.asCharBuffer();
+        for (int i = 0; i < a.length; ) {
+            int k = Math.min(chars.capacity(), a.length - i);
+            chars.clear();
+            chars.put(a, i, k);
+            buffer.clear().limit(2 * k);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            i += k;
+        }
+    }
+
+    private static int[] readInts(IntBuffer ints, int length) {
+        int[] a = new int[length];
+        ints.get(a);
+        return a;
+    }
+
+    // client: index and query the output of BurrowsWheeler -
+    //   build file | count file pattern | locate file pattern | extract file from to
+    public static void main(String[] args) throws IOException {
+
+        byte[] bytes = Files.readAllBytes(Paths.get(args[1]));
+        int first = ByteBuffer.wrap(bytes).getInt();
+        byte[] t = Arrays.copyOfRange(bytes, 4, bytes.length);
+        String indexFile = args[1] + ".fmi";
+
+        if (args[0].equals("build")) {
+            new FMIndex(t, t.length, first).save(indexFile);
+            return;
+        }
+
+        FMIndex index = Files.exists(Paths.get(indexFile)) ? load(indexFile, t, t.length) : new FMIndex(t, t.length, first);
+        if (args[0].equals("count"))
+            System.out.println(index.count(args[2].getBytes()));
+        else if (args[0].equals("locate"))
+            for (int p : index.locate(args[2].getBytes()))
+                System.out.println(p);
+        else if (args[0].equals("extract"))
+            System.out.write(index.extract(Integer.parseInt(args[2]), Integer.parseInt(args[3])));
+        System.out.flush();
+    }
+}
@@ -1,53 +1,167 @@
-import edu.princeton.cs.algs4.BinaryStdIn;
-import edu.princeton.cs.algs4.BinaryStdOut;
+import java.util.Arrays;
 
 public class MoveToFront {
 
     private static final int R = 256;
+    private static final int CHUNK = 1 << 16;
 
     public static void encode() {
         
-        // alphabet is a sorted dictionary, alphabet[i] gives the i-th character 
-        // indices[c] gives the index of character c in the sorted dictionary
-        char[] alphabet = new char[R];
-        char[] indices = new char[R];
-        for (char i = 0; i < R; i++) {
-            alphabet[i] = i;
-            indices[i] = i;
-        }
-
-        // read character from standard input and maintain alphabet[] and indices[]
-        while (!BinaryStdIn.isEmpty()) {
-            char c = BinaryStdIn.readChar();
-            char i = indices[c];
-            BinaryStdOut.write(i);
-            for (char j = i; j > 0; j--) {
-                alphabet[j] = alphabet[j-1];
-                indices[alphabet[j-1]]++;
-            }
-            alphabet[0] = c;
-            indices[c] = 0;
+        // the encoder keeps the move-to-front order across chunks
+        Encoder encoder = new Encoder();
+
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
+        byte[] chunk = new byte[CHUNK];
+        int n;
+        while ((n = in.read(chunk, 0, CHUNK)) > 0) {
+            encode(chunk, 0, n, encoder);
+            out.write(chunk, 0, n);
         }
 
-        BinaryStdOut.close();
+        out.close();
     }
 
     public static void decode() {
         
-        char[] alphabet = new char[R];
-        for (char i = 0; i < R; i++)
-            alphabet[i] = i;
+        // alphabet is the move-to-front list, alphabet[i] gives the i-th character
+        byte[] alphabet = new byte[R];
+        for (int i = 0; i < R; i++)
+            alphabet[i] = (byte) i;
+
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
+        byte[] chunk = new byte[CHUNK];
+        int n;
+        while ((n = in.read(chunk, 0, CHUNK)) > 0) {
+            decode(chunk, 0, n, alphabet);
+            out.write(chunk, 0, n);
+        }
+
+        out.close();
+    }
+
+    /**
+     * encode a[lo:hi] in place, starting from the sorted alphabet
+     */
+    static void encode(byte[] a, int lo, int hi) {
+        encode(a, lo, hi, new Encoder());
+    }
+
+    /**
+     * decode a[lo:hi] in place, starting from the sorted alphabet
+     */
+    static void decode(byte[] a, int lo, int hi) {
+
+        byte[] alphabet = new byte[R];
+        for (int i = 0; i < R; i++)
+            alphabet[i] = (byte) i;
+        decode(a, lo, hi, alphabet);
+    }
+
+    // encode a[lo:hi] in place, continuing from the state of encoder
+    private static void encode(byte[] a, int lo, int hi, Encoder encoder) {
+        for (int k = lo; k < hi; k++)
+            a[k] = (byte) encoder.encode(a[k] & 0xff);
+    }
+
+    // decode a[lo:hi] in place, continuing from the given alphabet[]
+    private static void decode(byte[] a, int lo, int hi, byte[] alphabet) {
+
+        for (int k = lo; k < hi; k++) {
+            int i = a[k] & 0xff;
+            byte c = alphabet[i];
+            a[k] = c;
+            // a move of at most R-1 bytes, which arraycopy does with a few vector moves
+            if (i > 0) {
+                System.arraycopy(alphabet, 0, alphabet, 1, i);
+                alphabet[0] = c;
+            }
+        }
+    }
+
+    /**
+     * Move-to-front encoder which never shifts the list: the index of c is the
+     * number of distinct characters used since c was last used, which a Fenwick
+     * tree over the time slots of the last uses answers in O(log SLOTS) steps,
+     * however far back c is in the list.
+     */
+    private static final class Encoder {
+
+        // time slots before the last uses are renumbered to 0..R-1
+        private static final int SLOTS = 1 << 10;
 
-        while (!BinaryStdIn.isEmpty()) {
-            char i = BinaryStdIn.readChar();
-            char c = alphabet[i];
-            BinaryStdOut.write(c);
-            for (char j = i; j > 0; j--)
-                alphabet[j] = alphabet[j-1];
-            alphabet[0] = c;
+        private final int[] tree = new int[SLOTS+1];   // Fenwick tree of occupied slots
+        private final int[] time = new int[R];         // time[c] is the slot of the last use of c
+        private final int[] owner = new int[SLOTS];    // owner[t] is the character last used at t, or -1
+        private int now;                               // next free slot
+        private int front;                             // most recently used character
+
+        Encoder() {
+            // character 0 at the front of the list, R-1 at the back
+            Arrays.fill(owner, -1);
+            for (int c = R-1; c >= 0; c--) {
+                time[c] = now;
+                owner[now] = c;
+                add(now++, 1);
+            }
+            front = 0;
         }
 
-        BinaryStdOut.close();
+        int encode(int c) {
+
+            // runs of the same character are the common case after a BWT
+            if (c == front)
+                return 0;
+
+            if (now == SLOTS)
+                renumber();
+
+            int t = time[c];
+            int index = R - prefix(t);
+            add(t, -1);
+            owner[t] = -1;
+            time[c] = now;
+            owner[now] = c;
+            add(now++, 1);
+            front = c;
+            return index;
+        }
+
+        // pack the occupied slots into 0..R-1 keeping their order, and rebuild the tree
+        private void renumber() {
+            int m = 0;
+            for (int t = 0; t < SLOTS; t++) {
+                int c = owner[t];
+                if (c < 0)
+                    continue;
+                owner[t] = -1;
+                owner[m] = c;
+                time[c] = m++;
+            }
+            Arrays.fill(tree, 0);
+            for (int i = 1; i <= SLOTS; i++) {
+                if (i <= m)
+                    tree[i]++;
+                int parent = i + (i & -i);
+                if (parent <= SLOTS)
+                    tree[parent] += tree[i];
+            }
+            now = m;
+        }
+
+        private void add(int t, int delta) {
+            for (int i = t+1; i <= SLOTS; i += i & -i)
+                tree[i] += delta;
+        }
+
+        // number of occupied slots in [0, t]
+        private int prefix(int t) {
+            int sum = 0;
+            for (int i = t+1; i > 0; i -= i & -i)
+                sum += tree[i];
+            return sum;
+        }
     }
 
     public static void main(String[] args) {
@@ -56,4 +170,4 @@ public class MoveToFront {
         else if (args[0].equals("+"))
             decode();
     }
-}
\ No newline at end of file
+}
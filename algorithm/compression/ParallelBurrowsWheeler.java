@@ -0,0 +1,118 @@
+/**
+ * Block-parallel Burrows-Wheeler transform followed by move-to-front encoding.
+ * Every block is written as (first, length, bytes), the same framing as
+ * BurrowsWheeler -b, with the bytes move-to-front encoded on their own.
+ */
+public class ParallelBurrowsWheeler {
+
+    // each block travels through the pipeline as 4 bytes of first followed by its data
+    private static final int HEADER = 4;
+
+    public static void compress(int blockSize, int threads) {
+
+        if (blockSize < BurrowsWheeler.MIN_BLOCK_SIZE || blockSize > BurrowsWheeler.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size should be between " + BurrowsWheeler.MIN_BLOCK_SIZE + " and " + BurrowsWheeler.MAX_BLOCK_SIZE);
+
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
+        BlockPipeline.run(threads,
+            () -> readBlock(in, blockSize),
+            t -> writeTransformedBlock(out, t),
+            ParallelBurrowsWheeler::transform,
+            block -> { MoveToFront.encode(block, HEADER, block.length); return block; });
+
+        out.close();
+    }
+
+    public static void expand(int threads) {
+
+        BinaryChannelIn in = BinaryChannelIn.stdin();
+        BinaryChannelOut out = BinaryChannelOut.stdout();
+        BlockPipeline.run(threads,
+            () -> readTransformedBlock(in),
+            a -> out.write(a, 0, a.length),
+            block -> { MoveToFront.decode(block, HEADER, block.length); return block; },
+            ParallelBurrowsWheeler::inverseTransform);
+
+        out.close();
+    }
+
+    // suffix sorting stage
+    private static byte[] transform(byte[] a) {
+        byte[] t = new byte[HEADER + a.length];
+        int first = BurrowsWheeler.transform(a, a.length, t);
+        System.arraycopy(t, 0, t, HEADER, a.length);
+        putInt(t, first);
+        return t;
+    }
+
+    // inverse suffix sorting stage
+    private static byte[] inverseTransform(byte[] t) {
+        int n = t.length - HEADER;
+        byte[] a = new byte[n];
+        System.arraycopy(t, HEADER, a, 0, n);
+        BurrowsWheeler.inverseTransform(a, n, getInt(t), a);
+        return a;
+    }
+
+    // read up to blockSize raw bytes; null at the end of input
+    private static byte[] readBlock(BinaryChannelIn in, int blockSize) {
+        byte[] block = new byte[blockSize];
+        int n = in.read(block, 0, blockSize);
+        if (n < 0)
+            return null;
+        if (n == blockSize)
+            return block;
+        byte[] last = new byte[n];
+        System.arraycopy(block, 0, last, 0, n);
+        return last;
+    }
+
+    // read one (first, length, bytes) block; null at the end of input
+    private static byte[] readTransformedBlock(BinaryChannelIn in) {
+        if (in.isEmpty())
+            return null;
+        int first = in.readInt();
+        int n = in.readInt();
+        if (n <= 0 || n > BurrowsWheeler.MAX_BLOCK_SIZE || first < 0 || first >= n)
+            throw new IllegalArgumentException("Corrupted block header!");
+        byte[] t = new byte[HEADER + n];
+        putInt(t, first);
+        if (in.read(t, HEADER, n) != n)
+            throw new IllegalArgumentException("Truncated block!");
+        return t;
+    }
+
+    // write one (first, length, bytes) block
+    private static void writeTransformedBlock(BinaryChannelOut out, byte[] t) {
+        out.write(t, 0, HEADER);
+        out.writeInt(t.length - HEADER);
+        out.write(t, HEADER, t.length - HEADER);
+    }
+
+    private static void putInt(byte[] a, int x) {
+        a[0] = (byte) (x >>> 24);
+        a[1] = (byte) (x >>> 16);
+        a[2] = (byte) (x >>> 8);
+        a[3] = (byte) x;
+    }
+
+    private static int getInt(byte[] a) {
+        return (a[0] & 0xff) << 24 | (a[1] & 0xff) << 16 | (a[2] & 0xff) << 8 | (a[3] & 0xff);
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args[0].equals("-")) {
+            int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : BurrowsWheeler.DEFAULT_BLOCK_SIZE;
+            if (args.length > 2)
+                threads = Integer.parseInt(args[2]);
+            compress(blockSize, threads);
+        }
+        else if (args[0].equals("+")) {
+            if (args.length > 1)
+                threads = Integer.parseInt(args[1]);
+            expand(threads);
+        }
+    }
+}
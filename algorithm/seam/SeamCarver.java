@@ -1,30 +1,68 @@
 import edu.princeton.cs.algs4.Picture;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class SeamCarver {
 
-   private Picture picture;
+   // pixels of the smallest picture searched in parallel
+   private static final int PARALLEL = 1 << 18;
+
+   // fewest pixels across the seams relaxed by one task
+   private static final int CHUNK = 512;
+
+   // pixel (x,y) is rgb[y*stride + x]; removing a seam shifts pixels within the
+   // buffer, so the stride stays that of the original picture
+   private final int[] rgb;
+   private int width;
+   private int height;
+   private final int stride;
+
+   // state of the last seam search, kept from one seam to the next while seams
+   // of the same direction are removed. The pixel at index i across the seams
+   // in step j along them, that is (i,j) for vertical seams and (j,i) for
+   // horizontal ones, is at index j*pitch + i+1 of the flat arrays, and every
+   // step of distanceTo is padded with infinity on both sides, so the relaxation
+   // needs no test at the edges. The arrays are reused by later searches.
+   private boolean searched;       // false until the first search and after a seam of the other direction is removed
+   private boolean horizontal;
+   private int pitch;
+   private int acrossStep;         // distance in rgb between neighbors across the seams
+   private int alongStep;          // distance in rgb between neighbors along the seams
+   private double[] energies = new double[0];
+   private double[] distanceTo = new double[0];
+   private byte[] offsetTo = new byte[0];
 
    // create a seam carver object based on the given picture
    public SeamCarver(Picture picture) {
       if (picture == null)
          throw new IllegalArgumentException("Input picture is a null reference!");
-      this.picture = new Picture(picture);
+      width = picture.width();
+      height = picture.height();
+      stride = width;
+      rgb = new int[width*height];
+      for (int row = 0; row < height; row++)
+         for (int col = 0; col < width; col++)
+            rgb[row*stride + col] = picture.getRGB(col, row);
    }
 
    // current picture
    public Picture picture() {
-      return new Picture(picture);
+      Picture picture = new Picture(width, height);
+      for (int row = 0; row < height; row++)
+         for (int col = 0; col < width; col++)
+            picture.setRGB(col, row, rgb[row*stride + col]);
+      return picture;
    }
 
    // width of current picture
    public int width() {
-      return picture.width();
+      return width;
    }
 
    // height of current picture
    public int height() {
-      return picture.height();
+      return height;
    }
 
    // energy of pixel at column x and row y
@@ -33,85 +71,219 @@ public class SeamCarver {
          throw new IllegalArgumentException("Input coordinates are out of range of picture dimension!");
       if (x == 0 || x == width()-1 || y == 0 || y == height()-1)
          return 1000.0;
-      double dx = distanceSquared(picture.getRGB(x-1, y), picture.getRGB(x+1, y));
-      double dy = distanceSquared(picture.getRGB(x, y-1), picture.getRGB(x, y+1));
-      return Math.sqrt(dx+dy);
+      return gradient(y*stride + x, 1, stride);
+   }
+
+   // energy of the interior pixel at index p of rgb, given the distances to its neighbors
+   private double gradient(int p, int step1, int step2) {
+      return Math.sqrt(distanceSquared(rgb[p-step1], rgb[p+step1]) + distanceSquared(rgb[p-step2], rgb[p+step2]));
    }
 
    // sequence of indices for horizontal seam
    public int[] findHorizontalSeam() {
-
-      // run findVerticalSeam() on transposed picture
-      Picture pictureOriginal = picture;
-      picture = new Picture(height(), width());
-      for (int row = 0; row < pictureOriginal.height(); row++)
-         for (int col = 0; col < pictureOriginal.width(); col++)
-            picture.setRGB(row, col, pictureOriginal.getRGB(col, row));
-      int[] seam = findVerticalSeam();
-      
-      // don't forget to restore
-      picture = pictureOriginal;
-
-      return seam;
+      return findSeam(true);
    }
 
    // sequence of indices for vertical seam
    public int[] findVerticalSeam() {
-      
+      return findSeam(false);
+   }
+
+   // sequence of indices for a seam of the given direction, found without
+   // transposing the picture; seams and ties are as if a vertical seam were
+   // found in the transposed picture
+   private int[] findSeam(boolean horizontal) {
+
+      int across = horizontal ? height : width;
+      int along = horizontal ? width : height;
+
       // special case
-      if (width() == 1)
-         return new int[height()];
-
-      // offsetTo[y][x] stores the horizontal offset between pixel (x,y) and its precedessor in the shortest path
-      int[][] offsetTo = new int[height()][width()];
-      
-      // distanceTo[y][x] stores the shortest distance from pixel (x,y) to a virtual top node
-      double[][] distanceTo = new double[height()][width()];
-      for (int row = 0; row < height(); row++) {
-         if (row == 0)
-            Arrays.fill(distanceTo[row], 1000.0);
-         else
-            Arrays.fill(distanceTo[row], Double.POSITIVE_INFINITY);
-      }
-      
-      // precomputes energy for each pixel
-      double[][] energies = new double[height()][width()];
-      for (int row = 0; row < height(); row++)
-         for (int col = 0; col < width(); col++)
-            energies[row][col] = energy(col, row);
-      
-      // dynamic programming (shortest path via topological sort)
-      for (int row = 0; row < height()-1; row++)
-         for (int col = 0; col < width(); col++) {
-            int[] offsets;
-            if (col == 0)
-               offsets = new int[]{0, 1};
-            else if (col == width()-1)
-               offsets = new int[]{-1, 0};
-            else
-               offsets = new int[]{-1, 0, 1};
-            for (int s: offsets)
-               if (distanceTo[row+1][col+s] > distanceTo[row][col]+energies[row+1][col+s]) {
-                  distanceTo[row+1][col+s] = distanceTo[row][col]+energies[row+1][col+s];
-                  offsetTo[row+1][col+s] = s;
-               }
-         }
+      if (across == 1)
+         return new int[along];
 
-      // find index of the last row with minimum distanceTo value
+      if (!searched || this.horizontal != horizontal)
+         search(horizontal);
+
+      // find index of the last step with minimum distanceTo value
+      int last = (along-1)*pitch + 1;
       int index = 0;
-      for (int col = 0; col < width(); col++)
-         if (distanceTo[height()-1][col] < distanceTo[height()-1][index])
-            index = col;
-      
+      for (int i = 0; i < across; i++)
+         if (distanceTo[last+i] < distanceTo[last+index])
+            index = i;
+
       // construct seam array
-      int[] seam = new int[height()];
-      seam[height()-1] = index;
-      for (int row = height()-1; row > 0; row--)
-         seam[row-1] = seam[row] - offsetTo[row][seam[row]];
+      int[] seam = new int[along];
+      seam[along-1] = index;
+      for (int j = along-1; j > 0; j--)
+         seam[j-1] = seam[j] - offsetTo[j*pitch + seam[j]+1];
 
       return seam;
    }
 
+   // number of pixels across the seams of the current search
+   private int across() {
+      return horizontal ? height : width;
+   }
+
+   // number of pixels along the seams of the current search
+   private int along() {
+      return horizontal ? width : height;
+   }
+
+   // compute the state of a seam search in the given direction from scratch
+   private void search(boolean horizontal) {
+
+      this.horizontal = horizontal;
+      acrossStep = horizontal ? stride : 1;
+      alongStep = horizontal ? 1 : stride;
+      int across = across(), along = along();
+      pitch = across + 2;
+
+      // the arrays are reused unless they are too small for this direction
+      if (distanceTo.length < pitch*along) {
+         energies = new double[pitch*along];
+         distanceTo = new double[pitch*along];
+         offsetTo = new byte[pitch*along];
+      }
+
+      // offsetTo[j*pitch + i+1] stores the offset between pixel (i,j) and its precedessor in the shortest path;
+      // distanceTo[j*pitch + i+1] stores the shortest distance from pixel (i,j) to a virtual first node
+      Arrays.fill(distanceTo, 0, pitch, 1000.0);
+      for (int j = 0; j < along; j++) {
+         distanceTo[j*pitch] = Double.POSITIVE_INFINITY;
+         distanceTo[j*pitch + across+1] = Double.POSITIVE_INFINITY;
+      }
+
+      // small pictures are searched serially, large ones on the common fork/join pool
+      int parallelism = ForkJoinPool.getCommonPoolParallelism();
+      boolean parallel = parallelism > 1 && (long) across * along >= PARALLEL;
+
+      // precomputes energy for each pixel, a tile of steps per task
+      IntStream steps = IntStream.range(0, along);
+      (parallel ? steps.parallel() : steps).forEach(this::energyStep);
+
+      // dynamic programming (shortest path via topological sort); a step depends
+      // only on the one before, so its pixels are relaxed in parallel chunks,
+      // a few per worker so that uneven workers even out
+      int chunk = Math.max(across / (4*parallelism), CHUNK);
+      int chunks = parallel ? (across + chunk-1) / chunk : 1;
+      for (int j = 1; j < along; j++) {
+         int first = j*pitch + 1;
+         if (chunks == 1) {
+            relax(first, first + across);
+            continue;
+         }
+         IntStream.range(0, chunks).parallel().forEach(c -> relax(first + c*chunk, first + Math.min(across, (c+1)*chunk)));
+      }
+
+      searched = true;
+   }
+
+   // compute the energies of step j, with the pixels at the edges out of the loop
+   private void energyStep(int j) {
+      int across = across(), along = along();
+      int k = j*pitch + 1;
+      if (j == 0 || j == along-1) {
+         Arrays.fill(energies, k, k + across, 1000.0);
+         return;
+      }
+      energies[k] = 1000.0;
+      energies[k + across-1] = 1000.0;
+      int p = j*alongStep;
+      for (int i = 1; i < across-1; i++)
+         energies[k+i] = gradient(p + i*acrossStep, acrossStep, alongStep);
+   }
+
+   // energy of the pixel at index i across the seams of the current search in step j along them
+   private double energyAt(int i, int j) {
+      if (i == 0 || i == across()-1 || j == 0 || j == along()-1)
+         return 1000.0;
+      return gradient(j*alongStep + i*acrossStep, acrossStep, alongStep);
+   }
+
+   // bring the state of the seam search up to date once a seam of the same
+   // direction is removed; only pixels near the seam and the pixels after
+   // them whose distances change are computed again
+   private void update(int[] seam) {
+
+      int across = across(), along = along();
+
+      // the state beyond the seam, and the padding after it, moves one index back
+      for (int j = 0; j < along; j++) {
+         int k = j*pitch + seam[j]+1;
+         System.arraycopy(energies, k+1, energies, k, across-seam[j]);
+         System.arraycopy(distanceTo, k+1, distanceTo, k, across+1-seam[j]);
+         System.arraycopy(offsetTo, k+1, offsetTo, k, across-seam[j]);
+      }
+
+      // energies change next to the seam, and before and after it where it moves sideways
+      for (int j = 0; j < along; j++) {
+         int lo = seam[j], hi = seam[j];
+         if (j > 0) {
+            lo = Math.min(lo, seam[j-1]);
+            hi = Math.max(hi, seam[j-1]);
+         }
+         if (j < along-1) {
+            lo = Math.min(lo, seam[j+1]);
+            hi = Math.max(hi, seam[j+1]);
+         }
+         for (int i = Math.max(lo-1, 0); i <= Math.min(hi, across-1); i++)
+            energies[j*pitch + i+1] = energyAt(i, j);
+      }
+
+      // a pixel is relaxed again if its energy or its neighbors in the step before
+      // changed, which is the case near the seam and after pixels whose distance changed
+      int changedLo = across, changedHi = -1;
+      for (int j = 1; j < along; j++) {
+         int lo = Math.min(seam[j-1], seam[j]) - 2;
+         int hi = Math.max(seam[j-1], seam[j]) + 1;
+         if (changedLo <= changedHi) {
+            lo = Math.min(lo, changedLo-1);
+            hi = Math.max(hi, changedHi+1);
+         }
+         changedLo = across;
+         changedHi = -1;
+         int first = j*pitch + 1;
+         for (int i = Math.max(lo, 0); i <= Math.min(hi, across-1); i++)
+            if (relax(first + i)) {
+               changedLo = Math.min(changedLo, i);
+               changedHi = i;
+            }
+      }
+   }
+
+   // relax the pixels at indices from until to of one step
+   private void relax(int from, int to) {
+      for (int k = from; k < to; k++)
+         relax(k);
+   }
+
+   // set the shortest distance to the pixel at index k from its neighbors in the
+   // step before, the one of least index on ties; returns whether the distance changed
+   private boolean relax(int k) {
+      int b = k - pitch;
+      double energy = energies[k];
+      double left = distanceTo[b-1] + energy;
+      double middle = distanceTo[b] + energy;
+      double right = distanceTo[b+1] + energy;
+      double distance = middle < left ? middle : left;
+      int offset = middle < left ? 0 : 1;
+      offset = right < distance ? -1 : offset;
+      distance = right < distance ? right : distance;
+      boolean changed = distance != distanceTo[k];
+      distanceTo[k] = distance;
+      offsetTo[k] = (byte) offset;
+      return changed;
+   }
+
+   // bring the state of the seam search up to date once a seam of the given direction is removed
+   private void removed(int[] seam, boolean horizontal) {
+      if (searched && this.horizontal == horizontal)
+         update(seam);
+      else
+         searched = false;
+   }
+
    // remove horizontal seam from current picture
    public void removeHorizontalSeam(int[] seam) {
       if (seam == null)
@@ -127,15 +299,17 @@ public class SeamCarver {
             throw new IllegalArgumentException("Invalid seam: difference between adjacent indices is larger than 1!");
       }
 
-      Picture pictureOriginal = picture;
-      picture = new Picture(width(), height()-1);
-      for (int col = 0; col < width(); col++) {
-         int row = 0, rowOriginal = 0;
-         while (row < height()) {
-            if (rowOriginal == seam[col]) rowOriginal++;
-            picture.setRGB(col, row++, pictureOriginal.getRGB(col, rowOriginal++));
-         }
-      }
+      // pixels below the seam move one row up, scanning the buffer row by row
+      int top = height;
+      for (int col = 0; col < width; col++)
+         top = Math.min(top, seam[col]);
+      for (int row = top; row < height-1; row++)
+         for (int col = 0; col < width; col++)
+            if (seam[col] <= row)
+               rgb[row*stride + col] = rgb[(row+1)*stride + col];
+      height--;
+
+      removed(seam, true);
    }
 
    // remove vertical seam from current picture
@@ -153,15 +327,12 @@ public class SeamCarver {
             throw new IllegalArgumentException("Invalid seam: difference between adjacent indices is larger than 1!");
       }
 
-      Picture pictureOriginal = picture;
-      picture = new Picture(width()-1, height());
-      for (int row = 0; row < height(); row++) {
-         int col = 0, colOriginal = 0;
-         while (col < width()) {
-            if (colOriginal == seam[row]) colOriginal++;
-            picture.setRGB(col++, row, pictureOriginal.getRGB(colOriginal++, row));
-         }
-      }        
+      // pixels right of the seam move one column left
+      for (int row = 0; row < height; row++)
+         System.arraycopy(rgb, row*stride + seam[row]+1, rgb, row*stride + seam[row], width-1 - seam[row]);
+      width--;
+
+      removed(seam, false);
    }
 
    // client testing
@@ -173,13 +344,10 @@ public class SeamCarver {
    }
 
    // get the squared distance between two RGB values
-   private double distanceSquared(int rgb1, int rgb2) {
-      int r1 = (rgb1 >> 16) & 0xFF;
-      int g1 = (rgb1 >> 8) & 0xFF;
-      int b1 = (rgb1 >> 0) & 0xFF;
-      int r2 = (rgb2 >> 16) & 0xFF;
-      int g2 = (rgb2 >> 8) & 0xFF;
-      int b2 = (rgb2 >> 0) & 0xFF;
-      return Math.pow(r1-r2, 2)+Math.pow(g1-g2, 2)+Math.pow(b1-b2, 2);
+   private static int distanceSquared(int rgb1, int rgb2) {
+      int r = ((rgb1 >> 16) & 0xFF) - ((rgb2 >> 16) & 0xFF);
+      int g = ((rgb1 >> 8) & 0xFF) - ((rgb2 >> 8) & 0xFF);
+      int b = ((rgb1 >> 0) & 0xFF) - ((rgb2 >> 0) & 0xFF);
+      return r*r + g*g + b*b;
    }
 }
@@ -0,0 +1,140 @@
+import edu.princeton.cs.algs4.Picture;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of the seam search of SeamCarver against a reference search in
+ * the textbook style, which allocates jagged arrays for every seam and an
+ * array of offsets for every pixel and gets every energy through energy().
+ * Both carve the same random picture, switching between vertical and
+ * horizontal seams after every seam, so that SeamCarver cannot carry the
+ * state of one search over to the next and both run a full search for every
+ * seam. The time and garbage collections of each are reported along with a
+ * check that they removed the same seams.
+ */
+public class SeamCarverBenchmark {
+
+   // client: width height seams [seed]
+   public static void main(String[] args) {
+
+      int width = Integer.parseInt(args[0]);
+      int height = Integer.parseInt(args[1]);
+      int seams = Integer.parseInt(args[2]);
+      Random random = new Random(args.length > 3 ? Long.parseLong(args[3]) : 0);
+      if (seams > width + height - 2)
+         throw new IllegalArgumentException("Too many seams for the size of the picture!");
+
+      Picture picture = new Picture(width, height);
+      for (int row = 0; row < height; row++)
+         for (int col = 0; col < width; col++)
+            picture.setRGB(col, row, random.nextInt(1 << 24));
+
+      // the first round warms up the compiler
+      for (int round = 0; round < 2; round++) {
+         long[] reference = new long[3], kernel = new long[3];
+         int[][] expected = carve(picture, seams, true, reference);
+         int[][] actual = carve(picture, seams, false, kernel);
+         if (round == 0)
+            continue;
+         System.out.printf("reference: %6d ms, %4d collections, %6d ms in collections%n", reference[0], reference[1], reference[2]);
+         System.out.printf("kernel:    %6d ms, %4d collections, %6d ms in collections%n", kernel[0], kernel[1], kernel[2]);
+         System.out.println(Arrays.deepEquals(expected, actual) ? "same seams" : "seams differ!");
+      }
+
+   }
+
+   // remove the given number of seams from a copy of the picture, with the reference
+   // search or with the kernel of SeamCarver; stats gets the elapsed time, the number
+   // of collections and the time spent in them; returns the seams in order
+   private static int[][] carve(Picture picture, int seams, boolean reference, long[] stats) {
+
+      long collections = collections(), collectionTime = collectionTime();
+      long start = System.nanoTime();
+
+      SeamCarver carver = new SeamCarver(picture);
+      int[][] removed = new int[seams][];
+      for (int k = 0; k < seams; k++) {
+         boolean horizontal = k % 2 == 1;
+         if (horizontal && carver.height() == 1 || !horizontal && carver.width() == 1)
+            horizontal = !horizontal;
+         int[] seam;
+         if (reference)
+            seam = referenceSeam(carver, horizontal);
+         else
+            seam = horizontal ? carver.findHorizontalSeam() : carver.findVerticalSeam();
+         removed[k] = seam;
+         if (horizontal)
+            carver.removeHorizontalSeam(seam);
+         else
+            carver.removeVerticalSeam(seam);
+      }
+
+      stats[0] = (System.nanoTime() - start) / 1000000;
+      stats[1] = collections() - collections;
+      stats[2] = collectionTime() - collectionTime;
+      return removed;
+
+   }
+
+   // seam found by a full search with an allocation per pixel, as SeamCarver once did
+   private static int[] referenceSeam(SeamCarver carver, boolean horizontal) {
+
+      int across = horizontal ? carver.height() : carver.width();
+      int along = horizontal ? carver.width() : carver.height();
+      if (across == 1)
+         return new int[along];
+
+      int[][] offsetTo = new int[along][across];
+      double[][] distanceTo = new double[along][across];
+      for (int j = 0; j < along; j++)
+         Arrays.fill(distanceTo[j], j == 0 ? 1000.0 : Double.POSITIVE_INFINITY);
+      double[][] energies = new double[along][across];
+      for (int j = 0; j < along; j++)
+         for (int i = 0; i < across; i++)
+            energies[j][i] = horizontal ? carver.energy(j, i) : carver.energy(i, j);
+
+      for (int j = 0; j < along-1; j++)
+         for (int i = 0; i < across; i++) {
+            int[] offsets;
+            if (i == 0)
+               offsets = new int[]{0, 1};
+            else if (i == across-1)
+               offsets = new int[]{-1, 0};
+            else
+               offsets = new int[]{-1, 0, 1};
+            for (int s: offsets)
+               if (distanceTo[j+1][i+s] > distanceTo[j][i]+energies[j+1][i+s]) {
+                  distanceTo[j+1][i+s] = distanceTo[j][i]+energies[j+1][i+s];
+                  offsetTo[j+1][i+s] = s;
+               }
+         }
+
+      int index = 0;
+      for (int i = 0; i < across; i++)
+         if (distanceTo[along-1][i] < distanceTo[along-1][index])
+            index = i;
+      int[] seam = new int[along];
+      seam[along-1] = index;
+      for (int j = along-1; j > 0; j--)
+         seam[j-1] = seam[j] - offsetTo[j][seam[j]];
+      return seam;
+
+   }
+
+   private static long collections() {
+      long count = 0;
+      for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+         count += Math.max(gc.getCollectionCount(), 0);
+      return count;
+   }
+
+   private static long collectionTime() {
+      long time = 0;
+      for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+         time += Math.max(gc.getCollectionTime(), 0);
+      return time;
+   }
+
+}
@@ -0,0 +1,336 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed ancestor labels: for every vertex v, the vertices reachable from v
+ * (its ancestors, v included) sorted by id, with their distances from v. The labels
+ * are stored back to back in flat int arrays, so a shortest ancestral path is a
+ * merge join of two labels and needs no graph search.
+ *
+ * Meant for shallow graphs such as WordNet hypernyms, where every label is small;
+ * the total size is the sum of the number of ancestors of each vertex.
+ */
+public class AncestorLabels {
+
+   // vertices labelled by one task of the parallel build
+   private static final int CHUNK = 1 << 10;
+
+   // packed result of a query without common ancestor
+   private static final long NONE = -1L;
+
+   private final int V;
+   final int[] start;      // label of v is vertex[start[v]:start[v+1]]
+   final int[] vertex;
+   final int[] dist;
+
+   // label every vertex of G
+   public AncestorLabels(CompactDigraph G) {
+
+      this(G, new TopologicalOrder(G));
+
+   }
+
+   // label every vertex of G, given its topological order: labels of a DAG are merged
+   // from the labels of the parents, those of other digraphs found by breadth first search
+   AncestorLabels(CompactDigraph G, TopologicalOrder topological) {
+
+      if (G == null || topological == null)
+         throw new IllegalArgumentException("Input graph is null!");
+
+      V = G.V();
+      int chunks = (V + CHUNK - 1) / CHUNK;
+
+      // first pass: the size of every label
+      start = new int[V+1];
+      IntStream.range(0, chunks).parallel().forEach(c -> {
+         Scratch scratch = new Scratch(V);
+         for (int v = c * CHUNK; v < Math.min(V, (c+1) * CHUNK); v++)
+            start[v+1] = scratch.bfs(G, v);
+      });
+      for (int v = 0; v < V; v++)
+         start[v+1] += start[v];
+
+      // second pass: fill in the labels, each sorted by vertex
+      vertex = new int[start[V]];
+      dist = new int[start[V]];
+      if (topological.isDAG())
+         merge(G, topological.order());
+      else
+         search(G);
+
+   }
+
+   // fill in every label from a breadth first search, sorting the vertices reached
+   private void search(CompactDigraph G) {
+
+      int chunks = (V + CHUNK - 1) / CHUNK;
+      IntStream.range(0, chunks).parallel().forEach(c -> {
+         Scratch scratch = new Scratch(V);
+         for (int v = c * CHUNK; v < Math.min(V, (c+1) * CHUNK); v++)
+            scratch.label(G, v, vertex, dist, start[v]);
+      });
+
+   }
+
+   // fill in the labels of a DAG from the roots down: the label of v is v itself and
+   // the labels of its parents one step further, merged, which keeps them sorted.
+   // The parents of v are on lower levels, so a level is labelled in parallel.
+   private void merge(CompactDigraph G, int[] order) {
+
+      // level of v is the length of the longest path from v to a root
+      int[] level = new int[V];
+      int levels = 0;
+      for (int k = V-1; k >= 0; k--) {
+         int v = order[k];
+         for (int i = G.start[v]; i < G.start[v+1]; i++)
+            level[v] = Math.max(level[v], level[G.adj[i]] + 1);
+         levels = Math.max(levels, level[v] + 1);
+      }
+
+      // vertices sorted by level
+      int[] levelStart = new int[levels+1];
+      for (int v = 0; v < V; v++)
+         levelStart[level[v]+1]++;
+      for (int l = 0; l < levels; l++)
+         levelStart[l+1] += levelStart[l];
+      int[] byLevel = new int[V];
+      int[] cursor = Arrays.copyOf(levelStart, levels);
+      for (int v = 0; v < V; v++)
+         byLevel[cursor[level[v]]++] = v;
+
+      int longest = 0;
+      for (int v = 0; v < V; v++)
+         longest = Math.max(longest, start[v+1] - start[v]);
+      int capacity = longest;
+
+      // narrow levels, as in long chains, share one merger instead of forking tasks
+      Merger serial = new Merger(capacity);
+      for (int l = 0; l < levels; l++) {
+         int lo = levelStart[l], hi = levelStart[l+1];
+         if (hi - lo <= CHUNK) {
+            for (int k = lo; k < hi; k++)
+               serial.label(G, byLevel[k]);
+            continue;
+         }
+         IntStream.range(0, (hi - lo + CHUNK - 1) / CHUNK).parallel().forEach(c -> {
+            Merger merger = new Merger(capacity);
+            for (int k = lo + c * CHUNK; k < Math.min(hi, lo + (c+1) * CHUNK); k++)
+               merger.label(G, byLevel[k]);
+         });
+      }
+
+   }
+
+   // labels for G, a copy of the digraph of these labels with edges or vertices added:
+   // the labels of affected vertices and of new ones are found again by breadth first
+   // search, the others copied
+   AncestorLabels update(CompactDigraph G, boolean[] affected) {
+
+      int n = G.V();
+      Scratch scratch = new Scratch(n);
+      int[] nstart = new int[n+1];
+      for (int v = 0; v < n; v++)
+         nstart[v+1] = nstart[v] + (v < V && !affected[v] ? start[v+1] - start[v] : scratch.bfs(G, v));
+
+      int[] nvertex = new int[nstart[n]];
+      int[] ndist = new int[nstart[n]];
+      for (int v = 0; v < n; v++) {
+         if (v < V && !affected[v]) {
+            System.arraycopy(vertex, start[v], nvertex, nstart[v], start[v+1] - start[v]);
+            System.arraycopy(dist, start[v], ndist, nstart[v], start[v+1] - start[v]);
+         }
+         else
+            scratch.label(G, v, nvertex, ndist, nstart[v]);
+      }
+      return new AncestorLabels(n, nstart, nvertex, ndist);
+
+   }
+
+   // wrap labels which are already laid out as above; they are not copied
+   AncestorLabels(int V, int[] start, int[] vertex, int[] dist) {
+
+      this.V = V;
+      this.start = start;
+      this.vertex = vertex;
+      this.dist = dist;
+
+   }
+
+   // number of vertices
+   public int V() {
+      return V;
+   }
+
+   // total number of label entries
+   public int size() {
+      return start[V];
+   }
+
+   /**
+    * shortest ancestral path between any vertex in v[vlo:vhi] and any vertex in w[wlo:whi],
+    * packed like SAP results: length in the high int, ancestor in the low int
+    */
+   long query(int[] v, int vlo, int vhi, int[] w, int wlo, int whi) {
+
+      long best = NONE;
+      for (int i = vlo; i < vhi; i++)
+         for (int j = wlo; j < whi; j++) {
+            long result = query(v[i], w[j]);
+            if (better(result, best))
+               best = result;
+         }
+      return best;
+
+   }
+
+   // shortest ancestral path between v and w, by a merge join of their sorted labels
+   long query(int v, int w) {
+
+      int ancestor = -1;
+      int distance = Integer.MAX_VALUE;
+      int p = start[v], pEnd = start[v+1];
+      int q = start[w], qEnd = start[w+1];
+      while (p < pEnd && q < qEnd) {
+         int x = vertex[p], y = vertex[q];
+         if (x < y)
+            p++;
+         else if (x > y)
+            q++;
+         else {
+            int d = dist[p++] + dist[q++];
+            if (d < distance || d == distance && x > ancestor) {
+               ancestor = x;
+               distance = d;
+            }
+         }
+      }
+
+      int length = ancestor == -1 ? -1 : distance;
+      return (long) length << 32 | (ancestor & 0xffffffffL);
+
+   }
+
+   // shorter paths first, then larger ancestors, as SAP breaks ties
+   private static boolean better(long result, long best) {
+      int length = SAP.lengthOf(result), bestLength = SAP.lengthOf(best);
+      if (length == -1) return false;
+      if (bestLength == -1) return true;
+      return length < bestLength || length == bestLength && SAP.ancestorOf(result) > SAP.ancestorOf(best);
+   }
+
+   // merge buffers for one build task
+   private final class Merger {
+
+      private int[] vertexA, distA, vertexB, distB;
+
+      Merger(int capacity) {
+         vertexA = new int[capacity];
+         distA = new int[capacity];
+         vertexB = new int[capacity];
+         distB = new int[capacity];
+      }
+
+      // write the label of v, once the labels of its parents are written
+      void label(CompactDigraph G, int v) {
+
+         // merge the labels of the parents into buffer A, keeping the shorter distances
+         int n = 0;
+         for (int i = G.start[v]; i < G.start[v+1]; i++) {
+            int p = G.adj[i];
+            int a = 0, q = start[p], qEnd = start[p+1], m = 0;
+            while (a < n || q < qEnd) {
+               if (q == qEnd || a < n && vertexA[a] < vertex[q]) {
+                  vertexB[m] = vertexA[a];
+                  distB[m++] = distA[a++];
+               }
+               else if (a == n || vertex[q] < vertexA[a]) {
+                  vertexB[m] = vertex[q];
+                  distB[m++] = dist[q++] + 1;
+               }
+               else {
+                  vertexB[m] = vertexA[a];
+                  distB[m++] = Math.min(distA[a++], dist[q++] + 1);
+               }
+            }
+            int[] t = vertexA; vertexA = vertexB; vertexB = t;
+            t = distA; distA = distB; distB = t;
+            n = m;
+         }
+
+         // v is not among its ancestors in a DAG
+         int out = start[v];
+         boolean placed = false;
+         for (int a = 0; a < n; a++) {
+            if (!placed && v < vertexA[a]) {
+               vertex[out] = v;
+               dist[out++] = 0;
+               placed = true;
+            }
+            vertex[out] = vertexA[a];
+            dist[out++] = distA[a];
+         }
+         if (!placed) {
+            vertex[out] = v;
+            dist[out] = 0;
+         }
+
+      }
+
+   }
+
+   // breadth first search state for one build task
+   private static final class Scratch {
+
+      private final int[] marked;
+      private final int[] distTo;
+      private final int[] queue;
+      private long[] pairs = new long[0];
+      private int epoch;
+
+      Scratch(int V) {
+         marked = new int[V];
+         distTo = new int[V];
+         queue = new int[Math.max(V, 1)];
+      }
+
+      // search from v; queue[0:n] holds the n vertices reached
+      int bfs(CompactDigraph G, int v) {
+         int[] start = G.start, adj = G.adj;
+         epoch++;
+         int head = 0, tail = 0;
+         marked[v] = epoch;
+         distTo[v] = 0;
+         queue[tail++] = v;
+         while (head < tail) {
+            int x = queue[head++];
+            for (int i = start[x]; i < start[x+1]; i++) {
+               int y = adj[i];
+               if (marked[y] != epoch) {
+                  marked[y] = epoch;
+                  distTo[y] = distTo[x]+1;
+                  queue[tail++] = y;
+               }
+            }
+         }
+         return tail;
+      }
+
+      // write the label of v, sorted by vertex, to vertex[at:] and dist[at:]
+      void label(CompactDigraph G, int v, int[] vertex, int[] dist, int at) {
+         int n = bfs(G, v);
+         if (pairs.length < n)
+            pairs = new long[Math.max(n, 2 * pairs.length)];
+         for (int i = 0; i < n; i++) {
+            int x = queue[i];
+            pairs[i] = (long) x << 32 | distTo[x];
+         }
+         Arrays.sort(pairs, 0, n);
+         for (int i = 0; i < n; i++) {
+            vertex[at + i] = (int) (pairs[i] >>> 32);
+            dist[at + i] = (int) pairs[i];
+         }
+      }
+
+   }
+
+}
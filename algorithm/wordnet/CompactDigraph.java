@@ -0,0 +1,90 @@
+import edu.princeton.cs.algs4.Digraph;
+import java.util.Arrays;
+
+/**
+ * Immutable digraph in compressed sparse row form: the vertices adjacent
+ * from v are adj[start[v]] through adj[start[v+1]-1], stored in two flat
+ * int arrays instead of one bag of boxed integers per vertex.
+ */
+public class CompactDigraph {
+
+   private final int V;
+   final int[] start;
+   final int[] adj;
+
+   // copy a digraph
+   public CompactDigraph(Digraph G) {
+
+      if (G == null)
+         throw new IllegalArgumentException("Input graph is null!");
+
+      V = G.V();
+      start = new int[V+1];
+      for (int v = 0; v < V; v++)
+         start[v+1] = start[v] + G.outdegree(v);
+      adj = new int[start[V]];
+      for (int v = 0; v < V; v++) {
+         int i = start[v];
+         for (int w: G.adj(v))
+            adj[i++] = w;
+      }
+
+   }
+
+   // wrap arrays which are already in compressed sparse row form; they are not copied
+   CompactDigraph(int V, int[] start, int[] adj) {
+
+      this.V = V;
+      this.start = start;
+      this.adj = adj;
+
+   }
+
+   // the digraph with every edge reversed, each adjacency list sorted
+   public CompactDigraph reverse() {
+
+      int[] rstart = new int[V+1];
+      for (int i = 0; i < start[V]; i++)
+         rstart[adj[i]+1]++;
+      for (int v = 0; v < V; v++)
+         rstart[v+1] += rstart[v];
+      int[] radj = new int[start[V]];
+      int[] cursor = Arrays.copyOf(rstart, V);
+      for (int v = 0; v < V; v++)
+         for (int i = start[v]; i < start[v+1]; i++)
+            radj[cursor[adj[i]]++] = v;
+      return new CompactDigraph(V, rstart, radj);
+
+   }
+
+   // a copy with V vertices, at least as many as this one, and the edges from v to
+   // each of targets added after the edges already pointing from v
+   CompactDigraph withEdges(int V, int v, int[] targets) {
+
+      int[] nstart = new int[V+1];
+      for (int x = 0; x < V; x++)
+         nstart[x+1] = nstart[x] + (x < this.V ? start[x+1] - start[x] : 0) + (x == v ? targets.length : 0);
+      int[] nadj = new int[nstart[V]];
+      for (int x = 0; x < this.V; x++)
+         System.arraycopy(adj, start[x], nadj, nstart[x], start[x+1] - start[x]);
+      System.arraycopy(targets, 0, nadj, nstart[v+1] - targets.length, targets.length);
+      return new CompactDigraph(V, nstart, nadj);
+
+   }
+
+   // number of vertices
+   public int V() {
+      return V;
+   }
+
+   // number of edges
+   public int E() {
+      return start[V];
+   }
+
+   // number of edges pointing from v
+   public int outdegree(int v) {
+      return start[v+1] - start[v];
+   }
+
+}
@@ -0,0 +1,102 @@
+import java.util.Arrays;
+
+/**
+ * Nearest nouns of a source in a WordNet. The distance from the source to a
+ * synset x is the least dS(a) + d(x, a) over the common ancestors a, so it is
+ * the distance from the ancestors of the source, each starting at dS(a), down
+ * the hyponym edges to x. A breadth first search over the reversed digraph,
+ * seeded with the ancestors in order of distance, settles the synsets nearest
+ * first, and the nouns of each synset are reported as it is settled.
+ */
+public class NearestNouns {
+
+   private final CompactDigraph reverse;    // hyponym edges
+   private final int nouns;
+   private final int[] nounStart;           // nouns of synset x are nounOf[nounStart[x]:nounStart[x+1]]
+   private final int[] nounOf;
+
+   // index the nouns of every synset of G
+   public NearestNouns(CompactDigraph G, NounDictionary dictionary) {
+
+      if (G == null || dictionary == null)
+         throw new IllegalArgumentException("Input arguments are null references!");
+
+      int V = G.V();
+      reverse = G.reverse();
+      nouns = dictionary.size();
+
+      // invert the synsets of every noun
+      int[] ids = dictionary.ids, idStart = dictionary.idStart;
+      nounStart = new int[V+1];
+      for (int k = 0; k < ids.length; k++)
+         nounStart[ids[k]+1]++;
+      for (int x = 0; x < V; x++)
+         nounStart[x+1] += nounStart[x];
+      nounOf = new int[ids.length];
+      int[] cursor = Arrays.copyOf(nounStart, V);
+      for (int i = 0; i < nouns; i++)
+         for (int k = idStart[i]; k < idStart[i+1]; k++)
+            nounOf[cursor[ids[k]]++] = i;
+
+   }
+
+   /**
+    * ranks of the k nouns nearest to the source, nearest first, given the
+    * ancestors of the source packed above their distances (see SAP.profile());
+    * the noun of rank exclude, if any, is skipped
+    */
+   int[] nearest(long[] profile, int k, int exclude) {
+
+      int V = reverse.V();
+      int[] start = reverse.start, adj = reverse.adj;
+
+      // ancestors by distance from the source
+      long[] seeds = new long[profile.length];
+      for (int i = 0; i < profile.length; i++)
+         seeds[i] = (profile[i] & 0xffffffffL) << 32 | profile[i] >>> 32;
+      Arrays.sort(seeds);
+
+      int[] distTo = new int[V];
+      Arrays.fill(distTo, Integer.MAX_VALUE);
+      boolean[] seen = new boolean[nouns];
+      if (exclude >= 0)
+         seen[exclude] = true;
+
+      // the queue holds nondecreasing distances, and a seed is taken first on ties
+      int[] queue = new int[Math.max(V, 1)];
+      int head = 0, tail = 0, s = 0;
+      int[] result = new int[Math.min(k, nouns)];
+      int found = 0;
+      while (found < result.length) {
+         int x;
+         if (s < seeds.length && (head == tail || (int) (seeds[s] >>> 32) <= distTo[queue[head]])) {
+            x = (int) seeds[s];
+            int d = (int) (seeds[s++] >>> 32);
+            if (distTo[x] <= d)
+               continue;
+            distTo[x] = d;
+         }
+         else if (head < tail)
+            x = queue[head++];
+         else
+            break;
+
+         for (int i = nounStart[x]; i < nounStart[x+1] && found < result.length; i++)
+            if (!seen[nounOf[i]]) {
+               seen[nounOf[i]] = true;
+               result[found++] = nounOf[i];
+            }
+
+         for (int i = start[x]; i < start[x+1]; i++) {
+            int y = adj[i];
+            if (distTo[y] > distTo[x] + 1) {
+               distTo[y] = distTo[x] + 1;
+               queue[tail++] = y;
+            }
+         }
+      }
+      return found == result.length ? result : Arrays.copyOf(result, found);
+
+   }
+
+}
@@ -0,0 +1,219 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable dictionary from nouns to the ids of the synsets containing them.
+ * The nouns are kept sorted and back to back in one char pool and their ids
+ * back to back in one int array, so a lookup is a binary search over the pool
+ * that allocates nothing, and the whole dictionary is a handful of arrays.
+ */
+public class NounDictionary implements Iterable<String> {
+
+   private final int n;
+   final char[] pool;        // noun i is pool[nounStart[i]:nounStart[i+1]]
+   final int[] nounStart;
+   final int[] idStart;      // synsets of noun i are ids[idStart[i]:idStart[i+1]]
+   final int[] ids;
+
+   // index the nouns of every synset, a whitespace separated list of nouns
+   public NounDictionary(String[] synsets) {
+
+      if (synsets == null)
+         throw new IllegalArgumentException("Input array is a null reference!");
+
+      // every occurrence of a noun with the id of its synset, in synset order
+      String[] words = new String[16];
+      int[] owner = new int[16];
+      int m = 0;
+      for (int id = 0; id < synsets.length; id++) {
+         String synset = synsets[id];
+         if (synset == null)
+            throw new IllegalArgumentException("Synset " + id + " is missing!");
+         for (int i = 0, j; i < synset.length(); i = j + 1) {
+            j = i;
+            while (j < synset.length() && !Character.isWhitespace(synset.charAt(j)))
+               j++;
+            if (j == i)
+               continue;
+            if (m == words.length) {
+               words = Arrays.copyOf(words, 2*m);
+               owner = Arrays.copyOf(owner, 2*m);
+            }
+            words[m] = synset.substring(i, j);
+            owner[m++] = id;
+         }
+      }
+
+      // the distinct nouns, sorted
+      String[] sorted = Arrays.copyOf(words, m);
+      Arrays.parallelSort(sorted);
+      int distinct = 0;
+      for (int k = 0; k < m; k++)
+         if (distinct == 0 || !sorted[k].equals(sorted[distinct-1]))
+            sorted[distinct++] = sorted[k];
+
+      n = distinct;
+      nounStart = new int[n+1];
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < n; i++) {
+         sb.append(sorted[i]);
+         nounStart[i+1] = sb.length();
+      }
+      pool = new char[sb.length()];
+      sb.getChars(0, pool.length, pool, 0);
+
+      // a counting sort of the occurrences by noun keeps the ids of each noun in synset order
+      String[] w = words;
+      int size = distinct;
+      int[] rank = IntStream.range(0, m).parallel().map(k -> Arrays.binarySearch(sorted, 0, size, w[k])).toArray();
+      idStart = new int[n+1];
+      for (int k = 0; k < m; k++)
+         idStart[rank[k]+1]++;
+      for (int i = 0; i < n; i++)
+         idStart[i+1] += idStart[i];
+      ids = new int[m];
+      int[] cursor = Arrays.copyOf(idStart, n);
+      for (int k = 0; k < m; k++)
+         ids[cursor[rank[k]]++] = owner[k];
+
+   }
+
+   // wrap arrays which are already laid out as above; they are not copied
+   NounDictionary(char[] pool, int[] nounStart, int[] idStart, int[] ids) {
+
+      this.n = nounStart.length - 1;
+      this.pool = pool;
+      this.nounStart = nounStart;
+      this.idStart = idStart;
+      this.ids = ids;
+
+   }
+
+   // number of distinct nouns
+   public int size() {
+      return n;
+   }
+
+   // is the word a noun of the dictionary?
+   public boolean contains(String word) {
+      return indexOf(word) != -1;
+   }
+
+   // rank of the word among the sorted nouns; -1 if it is not a noun
+   public int indexOf(String word) {
+
+      int i = search(word);
+      return i < 0 ? -1 : i;
+
+   }
+
+   // a copy with id among the synsets of word, which is inserted if it is new;
+   // the arrays which do not change are shared
+   NounDictionary withNoun(String word, int id) {
+
+      int i = search(word);
+      if (i >= 0) {
+         for (int k = idStart[i]; k < idStart[i+1]; k++)
+            if (ids[k] == id)
+               return this;
+         return new NounDictionary(pool, nounStart, increment(idStart, i+1), insert(ids, idStart[i+1], id));
+      }
+
+      // word goes before the noun of rank at
+      int at = -(i+1);
+      int from = nounStart[at];
+      char[] npool = new char[pool.length + word.length()];
+      System.arraycopy(pool, 0, npool, 0, from);
+      word.getChars(0, word.length(), npool, from);
+      System.arraycopy(pool, from, npool, from + word.length(), pool.length - from);
+
+      int[] nstart = split(nounStart, at, word.length());
+      int[] nidStart = split(idStart, at, 1);
+      return new NounDictionary(npool, nstart, nidStart, insert(ids, idStart[at], id));
+
+   }
+
+   // a copy of a with a[from:] incremented
+   private static int[] increment(int[] a, int from) {
+      int[] b = a.clone();
+      for (int k = from; k < b.length; k++)
+         b[k]++;
+      return b;
+   }
+
+   // a copy of the offsets a with a new range of the given length after range at-1
+   private static int[] split(int[] a, int at, int length) {
+      int[] b = new int[a.length + 1];
+      System.arraycopy(a, 0, b, 0, at+1);
+      for (int k = at+1; k < b.length; k++)
+         b[k] = a[k-1] + length;
+      return b;
+   }
+
+   // a copy of a with x inserted at index at
+   private static int[] insert(int[] a, int at, int x) {
+      int[] b = new int[a.length + 1];
+      System.arraycopy(a, 0, b, 0, at);
+      b[at] = x;
+      System.arraycopy(a, at, b, at+1, a.length - at);
+      return b;
+   }
+
+   // rank of the word if it is a noun, -(insertion point + 1) otherwise
+   private int search(String word) {
+
+      if (word == null)
+         throw new IllegalArgumentException("Input argument is null!");
+
+      int lo = 0, hi = n-1;
+      while (lo <= hi) {
+         int mid = (lo + hi) >>> 1;
+         int cmp = compare(word, mid);
+         if      (cmp < 0) hi = mid-1;
+         else if (cmp > 0) lo = mid+1;
+         else return mid;
+      }
+      return -(lo+1);
+
+   }
+
+   // the noun of the given rank
+   public String noun(int i) {
+      return new String(pool, nounStart[i], nounStart[i+1] - nounStart[i]);
+   }
+
+   // the nouns in sorted order, each created as it is reached
+   public Iterator<String> iterator() {
+
+      return new Iterator<String>() {
+         private int i = 0;
+
+         public boolean hasNext() {
+            return i < n;
+         }
+
+         public String next() {
+            if (!hasNext())
+               throw new NoSuchElementException();
+            return noun(i++);
+         }
+      };
+
+   }
+
+   // compare word with noun i as String.compareTo() does
+   private int compare(String word, int i) {
+      int from = nounStart[i];
+      int length = nounStart[i+1] - from;
+      int m = Math.min(word.length(), length);
+      for (int k = 0; k < m; k++) {
+         char c = word.charAt(k), d = pool[from+k];
+         if (c != d)
+            return c - d;
+      }
+      return word.length() - length;
+   }
+
+}
@@ -19,10 +19,12 @@ public class Outcast {
 		int N = nouns.length;
 		int[] dist = new int[N];
 
-		// computet the distance between each word and the other
+		// computet the distance between each word and the other,
+		// searching from each word once
+		int[][] distances = wordnet.distances(nouns);
 		for (int i=0; i<N; i++)
 			for (int j=0; j<N; j++)
-				dist[i] += wordnet.distance(nouns[i], nouns[j]);
+				dist[i] += distances[i][j];
 		
 		// find the outcast (word with max distance)
 		int maxDist = dist[0];
@@ -2,28 +2,69 @@ import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.StdIn;
 import edu.princeton.cs.algs4.StdOut;
-import java.util.Queue;
-import java.util.LinkedList;
 import java.util.Arrays;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Shortest ancestral paths. The graph is immutable and the scratch state of a
+ * query lives in a Search borrowed from a pool for the duration of the query,
+ * so one SAP can serve many threads at once. The pool takes no monitors and no
+ * thread-locals, so it also suits virtual threads.
+ */
 public class SAP {
 
-   private final Digraph G;
-   private int ancestor;
-   private int distance;
-   private boolean[] marked;
-   private int[] distTo;
+   // searches kept for reuse; more may exist while many queries run at once
+   private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+   private final CompactDigraph G;
+   private final SAPCache cache;      // null if results are not cached
+   private final AncestorLabels labels;  // null if queries search the graph
+   private final long generation;        // of the cache when this SAP was created
+   private final BlockingQueue<Search> pool = new ArrayBlockingQueue<>(POOL_SIZE);
 
    // constructor takes a digraph (not necessarily a DAG)
    public SAP(Digraph G) {
 
+      this(G, null);
+
+   }
+
+   // remember results in the given cache, which must not be shared with another graph
+   public SAP(Digraph G, SAPCache cache) {
+
       if (G == null) 
          throw new IllegalArgumentException("Input graph is null!");
 
-      this.G = new Digraph(G.V());
-      for (int v=0; v<G.V(); v++)
-         for (int w: G.adj(v))
-            this.G.addEdge(v, w);
+      this.G = new CompactDigraph(G);
+      this.cache = cache;
+      this.labels = null;
+      this.generation = cache == null ? 0 : cache.generation();
+
+   }
+
+   // if precompute is true, label every vertex with its ancestors once so that
+   // queries are merge joins of two labels instead of graph searches
+   public SAP(Digraph G, boolean precompute) {
+
+      if (G == null) 
+         throw new IllegalArgumentException("Input graph is null!");
+
+      this.G = new CompactDigraph(G);
+      this.cache = null;
+      this.labels = precompute ? new AncestorLabels(this.G) : null;
+      this.generation = 0;
+
+   }
+
+   // share a compact digraph and labels, which are immutable
+   SAP(CompactDigraph G, SAPCache cache, AncestorLabels labels) {
+
+      this.G = G;
+      this.cache = cache;
+      this.labels = labels;
+      this.generation = cache == null ? 0 : cache.generation();
 
    }
 
@@ -33,8 +74,7 @@ public class SAP {
       if (!validVertex(v) || !validVertex(w))
          throw new IllegalArgumentException("Input vertex is invalid!");
 
-      shortestAncestralPath(Arrays.asList(v), Arrays.asList(w));
-      return ancestor==-1 ? -1 : distance;
+      return lengthOf(query(v, w));
 
    }
 
@@ -44,8 +84,7 @@ public class SAP {
       if (!validVertex(v) || !validVertex(w))
          throw new IllegalArgumentException("Input vertex is invalid!");
 
-      shortestAncestralPath(Arrays.asList(v), Arrays.asList(w));
-      return ancestor;
+      return ancestorOf(query(v, w));
 
    }
 
@@ -54,15 +93,8 @@ public class SAP {
 
       if (v == null || w == null)
          throw new IllegalArgumentException("Input vertices are null!");
-      for (int x: v)
-         if (!validVertex(x))
-            throw new IllegalArgumentException("Input vertex is invalid!");
-      for (int x: w)
-         if (!validVertex(x))
-            throw new IllegalArgumentException("Input vertex is invalid!");
 
-      shortestAncestralPath(v, w);
-      return ancestor==-1 ? -1 : distance;
+      return lengthOf(query(v, w));
    }
 
    // a common ancestor that participates in shortest ancestral path; -1 if no such path
@@ -70,66 +102,497 @@ public class SAP {
 
       if (v == null || w == null)
          throw new IllegalArgumentException("Input vertices are null!");
-      for (int x: v)
-         if (!validVertex(x))
-            throw new IllegalArgumentException("Input vertices are invalid!");
-      for (int x: w)
-         if (!validVertex(x))
-            throw new IllegalArgumentException("Input vertices are invalid!");
 
-      shortestAncestralPath(v, w);
-      return ancestor;
+      return ancestorOf(query(v, w));
+
+   }
+
+   // length of shortest ancestral path between any vertex in v[vlo:vhi] and any vertex in w[wlo:whi]
+   int length(int[] v, int vlo, int vhi, int[] w, int wlo, int whi) {
+
+      return lengthOf(query(v, vlo, vhi, w, wlo, whi));
+
+   }
+
+   // a common ancestor of v[vlo:vhi] and w[wlo:whi] in a shortest ancestral path
+   int ancestor(int[] v, int vlo, int vhi, int[] w, int wlo, int whi) {
+
+      return ancestorOf(query(v, vlo, vhi, w, wlo, whi));
+
+   }
+
+   // lengths of shortest ancestral paths between every pair of the given vertices,
+   // computed from one breadth first search per vertex
+   public int[][] lengths(int[] vertices) {
+
+      if (vertices == null)
+         throw new IllegalArgumentException("Input vertices are null!");
+
+      int n = vertices.length;
+      int[] lo = new int[n];
+      int[] hi = new int[n];
+      for (int k = 0; k < n; k++) {
+         if (!validVertex(vertices[k]))
+            throw new IllegalArgumentException("Input vertex is invalid!");
+         lo[k] = k;
+         hi[k] = k+1;
+      }
+      return lengths(vertices, lo, hi);
+
+   }
+
+   /**
+    * lengths of shortest ancestral paths between every pair of the vertex sets
+    * v[lo[k]:hi[k]], as a symmetric matrix with -1 for pairs without common ancestor.
+    * Each set is searched once, and its ancestors with their distances are kept
+    * sorted by vertex, so every pair is a merge join of two of them. Both the
+    * searches and the rows of the matrix run in parallel.
+    */
+   int[][] lengths(int[] v, int[] lo, int[] hi) {
+
+      int n = lo.length;
+      long[][] profiles = new long[n][];
+      IntStream.range(0, n).parallel().forEach(k -> {
+         Search search = acquire();
+         try {
+            profiles[k] = search.profile(G, v, lo[k], hi[k]);
+         }
+         finally {
+            release(search);
+         }
+      });
+
+      int[][] lengths = new int[n][n];
+      IntStream.range(0, n).parallel().forEach(i -> {
+         for (int j = i+1; j < n; j++) {
+            int d = join(profiles[i], profiles[j]);
+            lengths[i][j] = d;
+            lengths[j][i] = d;
+         }
+         lengths[i][i] = profiles[i].length == 0 ? -1 : 0;
+      });
+      return lengths;
+
+   }
+
+   // lengths of shortest ancestral paths from v to each vertex of w, from a single
+   // search upward from v
+   public int[] lengths(int v, int[] w) {
+
+      if (!validVertex(v))
+         throw new IllegalArgumentException("Input vertex is invalid!");
+      if (w == null)
+         throw new IllegalArgumentException("Input vertices are null!");
+
+      int[] lo = new int[w.length];
+      int[] hi = new int[w.length];
+      for (int k = 0; k < w.length; k++) {
+         if (!validVertex(w[k]))
+            throw new IllegalArgumentException("Input vertex is invalid!");
+         lo[k] = k;
+         hi[k] = k+1;
+      }
+      return lengths(new int[]{v}, 0, 1, w, lo, hi);
 
    }
 
+   // lengths of shortest ancestral paths from v[vlo:vhi] to each set w[lo[k]:hi[k]]
+   int[] lengths(int[] v, int vlo, int vhi, int[] w, int[] lo, int[] hi) {
+
+      if (labels != null) {
+         int[] lengths = new int[lo.length];
+         for (int k = 0; k < lo.length; k++)
+            lengths[k] = lengthOf(labels.query(v, vlo, vhi, w, lo[k], hi[k]));
+         return lengths;
+      }
+
+      Search search = acquire();
+      try {
+         return search.lengths(G, v, vlo, vhi, w, lo, hi);
+      }
+      finally {
+         release(search);
+      }
+
+   }
+
+   // the ancestors of v[vlo:vhi], each packed above its distance, sorted by vertex
+   long[] profile(int[] v, int vlo, int vhi) {
+
+      Search search = acquire();
+      try {
+         return search.profile(G, v, vlo, vhi);
+      }
+      finally {
+         release(search);
+      }
+
+   }
+
+   // shortest sum of distances to a vertex in both sorted profiles; -1 if none is shared
+   private static int join(long[] a, long[] b) {
+      int best = Integer.MAX_VALUE;
+      int i = 0, j = 0;
+      while (i < a.length && j < b.length) {
+         int x = (int) (a[i] >>> 32), y = (int) (b[j] >>> 32);
+         if (x < y)
+            i++;
+         else if (x > y)
+            j++;
+         else
+            best = Math.min(best, (int) a[i++] + (int) b[j++]);
+      }
+      return best == Integer.MAX_VALUE ? -1 : best;
+   }
+
+   // both results of a query packed in a long, see lengthOf() and ancestorOf();
+   // a cached query fills in the length and the ancestor of the pair at once
+   private long query(int v, int w) {
+
+      if (labels != null)
+         return labels.query(v, w);
+
+      SAPCache.Key key = null;
+      if (cache != null) {
+         key = SAPCache.key(v, w);
+         Long cached = cache.get(key);
+         if (cached != null)
+            return cached;
+      }
+
+      long result;
+      Search search = acquire();
+      try {
+         search.run(G, v, w);
+         result = search.result();
+      }
+      finally {
+         release(search);
+      }
+
+      if (cache != null)
+         cache.put(key, result, generation);
+      return result;
+   }
+
+   private long query(Iterable<Integer> v, Iterable<Integer> w) {
+      int[] a = toArray(v);
+      int[] b = toArray(w);
+      return query(a, 0, a.length, b, 0, b.length);
+   }
+
+   long query(int[] v, int vlo, int vhi, int[] w, int wlo, int whi) {
+
+      if (labels != null)
+         return labels.query(v, vlo, vhi, w, wlo, whi);
+
+      SAPCache.Key key = null;
+      if (cache != null) {
+         key = SAPCache.key(v, vlo, vhi, w, wlo, whi);
+         Long cached = cache.get(key);
+         if (cached != null)
+            return cached;
+      }
+
+      long result;
+      Search search = acquire();
+      try {
+         search.run(G, v, vlo, vhi, w, wlo, whi);
+         result = search.result();
+      }
+      finally {
+         release(search);
+      }
+
+      if (cache != null)
+         cache.put(key, result, generation);
+      return result;
+   }
+
+   static int lengthOf(long result) {
+      return (int) (result >> 32);
+   }
+
+   static int ancestorOf(long result) {
+      return (int) result;
+   }
+
+   private Search acquire() {
+      Search search = pool.poll();
+      return search != null ? search : new Search(G.V());
+   }
+
+   // keep the search for the next query unless the pool is full
+   private void release(Search search) {
+      pool.offer(search);
+   }
+
    // check if input vertex is valid
    private boolean validVertex(int v) {
       return v >= 0 && v < G.V();
    }
 
-   // breadth first search
-   private void bfs(Iterable<Integer> v) {
+   // copy the vertices into an array, checking each of them
+   private int[] toArray(Iterable<Integer> v) {
+      int[] a = new int[4];
+      int n = 0;
+      for (Integer x: v) {
+         if (x == null || !validVertex(x))
+            throw new IllegalArgumentException("Input vertex is invalid!");
+         if (n == a.length)
+            a = Arrays.copyOf(a, 2*n);
+         a[n++] = x;
+      }
+      return Arrays.copyOf(a, n);
+   }
 
-      marked = new boolean[G.V()];
-      distTo = new int[G.V()];
-      Queue<Integer> queue = new LinkedList<>();
-      for (int x: v) {
-         queue.add(x);
-         marked[x] = true;
+   /**
+    * Scratch state of the two breadth first searches, reused by one query
+    * at a time. A vertex is marked in a query when its stamp equals the
+    * current epoch, so nothing is cleared between queries.
+    *
+    * The searches from v and w advance one level at a time, the smaller frontier
+    * first, and a common ancestor is recorded as soon as the second of them marks
+    * it. A vertex not yet marked from v is at least one level beyond the frontier
+    * from v, and likewise for w, so once both next levels are farther than the
+    * best path found, no unseen ancestor can do better or tie and the search
+    * stops. Tied ancestors are all seen, and the largest is kept, as in the
+    * ancestor labels.
+    */
+   private static final class Search {
+
+      private final int[] markedV;      // markedV[x] == epoch if x is reached from v
+      private final int[] markedW;
+      private final int[] distToV;
+      private final int[] distToW;
+      private final int[] queueV;       // each vertex is queued at most once, so V slots never wrap
+      private final int[] queueW;
+      private final int[] sourceV = new int[1];
+      private final int[] sourceW = new int[1];
+      private int epoch;
+
+      private int ancestor;
+      private int distance;
+
+      Search(int V) {
+         markedV = new int[V];
+         markedW = new int[V];
+         distToV = new int[V];
+         distToW = new int[V];
+         queueV = new int[Math.max(V, 1)];
+         queueW = new int[Math.max(V, 1)];
       }
-      while (!queue.isEmpty()) {
-         int x = queue.remove();
-         for (int y: G.adj(x))
-            if (!marked[y]) {
-               queue.add(y);
-               marked[y] = true;
-               distTo[y] = distTo[x]+1;
+
+      void run(CompactDigraph G, int v, int w) {
+         sourceV[0] = v;
+         sourceW[0] = w;
+         run(G, sourceV, 0, 1, sourceW, 0, 1);
+      }
+
+      // a helper function to find shortest ancestral path
+      void run(CompactDigraph G, int[] v, int vlo, int vhi, int[] w, int wlo, int whi) {
+
+         nextEpoch();
+         ancestor = -1;
+         distance = Integer.MAX_VALUE;
+
+         int tailV = 0, tailW = 0;
+         for (int i = vlo; i < vhi; i++) {
+            int x = v[i];
+            if (markedV[x] != epoch) {
+               markedV[x] = epoch;
+               distToV[x] = 0;
+               queueV[tailV++] = x;
+            }
+         }
+         for (int i = wlo; i < whi; i++) {
+            int x = w[i];
+            if (markedW[x] != epoch) {
+               markedW[x] = epoch;
+               distToW[x] = 0;
+               queueW[tailW++] = x;
+               if (markedV[x] == epoch)
+                  found(x, 0);
             }
+         }
+
+         // headV:tailV is the frontier at depth depthV, and likewise for w
+         int headV = 0, headW = 0;
+         int depthV = 0, depthW = 0;
+         while (headV < tailV || headW < tailW) {
+
+            int nextV = headV < tailV ? depthV+1 : Integer.MAX_VALUE;
+            int nextW = headW < tailW ? depthW+1 : Integer.MAX_VALUE;
+            if (Math.min(nextV, nextW) > distance)
+               break;
+
+            // a level beyond the best path can find neither a shorter path nor a tie
+            if (headW == tailW || nextW > distance || headV < tailV && nextV <= distance && tailV-headV <= tailW-headW) {
+               int end = tailV;
+               tailV = expand(G, queueV, headV, end, markedV, distToV, markedW, distToW);
+               headV = end;
+               depthV++;
+            }
+            else {
+               int end = tailW;
+               tailW = expand(G, queueW, headW, end, markedW, distToW, markedV, distToV);
+               headW = end;
+               depthW++;
+            }
+         }
+
       }
 
-   }
+      // breadth first search from v[vlo:vhi] alone: the vertices reached, each packed
+      // above its distance, sorted by vertex
+      long[] profile(CompactDigraph G, int[] v, int vlo, int vhi) {
+
+         nextEpoch();
+
+         int tail = 0;
+         for (int i = vlo; i < vhi; i++) {
+            int x = v[i];
+            if (markedV[x] != epoch) {
+               markedV[x] = epoch;
+               distToV[x] = 0;
+               queueV[tail++] = x;
+            }
+         }
+         // nothing is marked from w in this epoch, so no ancestor is recorded
+         for (int head = 0; head < tail; ) {
+            int end = tail;
+            tail = expand(G, queueV, head, end, markedV, distToV, markedW, distToW);
+            head = end;
+         }
+
+         long[] profile = new long[tail];
+         for (int i = 0; i < tail; i++) {
+            int x = queueV[i];
+            profile[i] = (long) x << 32 | distToV[x];
+         }
+         Arrays.sort(profile);
+         return profile;
+
+      }
+
+      /**
+       * lengths from v[vlo:vhi] to each set w[lo[k]:hi[k]]: one complete search from v,
+       * whose marks stay valid while every target takes an epoch of its own, and
+       * one search from each target, stopped once its next level cannot get closer
+       */
+      int[] lengths(CompactDigraph G, int[] v, int vlo, int vhi, int[] w, int[] lo, int[] hi) {
+
+         int targets = lo.length;
+         if (epoch >= Integer.MAX_VALUE - 1 - targets) {
+            Arrays.fill(markedV, 0);
+            Arrays.fill(markedW, 0);
+            epoch = 0;
+         }
+         int source = ++epoch;
+
+         int tail = 0;
+         for (int i = vlo; i < vhi; i++) {
+            int x = v[i];
+            if (markedV[x] != source) {
+               markedV[x] = source;
+               distToV[x] = 0;
+               queueV[tail++] = x;
+            }
+         }
+         for (int head = 0; head < tail; ) {
+            int end = tail;
+            tail = expand(G, queueV, head, end, markedV, distToV, markedW, distToW);
+            head = end;
+         }
+
+         int[] lengths = new int[targets];
+         for (int k = 0; k < targets; k++) {
+            epoch++;
+            lengths[k] = target(G, w, lo[k], hi[k], source);
+         }
+         return lengths;
+
+      }
+
+      // length from the complete search marked with source to w[lo:hi]; -1 if there is no path
+      private int target(CompactDigraph G, int[] w, int lo, int hi, int source) {
+
+         int[] start = G.start, adj = G.adj;
+         int best = Integer.MAX_VALUE;
+         int tail = 0;
+         for (int i = lo; i < hi; i++) {
+            int x = w[i];
+            if (markedW[x] != epoch) {
+               markedW[x] = epoch;
+               distToW[x] = 0;
+               queueW[tail++] = x;
+               if (markedV[x] == source)
+                  best = Math.min(best, distToV[x]);
+            }
+         }
+
+         for (int head = 0, depth = 0; head < tail && depth+1 < best; depth++) {
+            for (int end = tail; head < end; head++) {
+               int x = queueW[head];
+               for (int i = start[x]; i < start[x+1]; i++) {
+                  int y = adj[i];
+                  if (markedW[y] != epoch) {
+                     markedW[y] = epoch;
+                     distToW[y] = depth+1;
+                     queueW[tail++] = y;
+                     if (markedV[y] == source)
+                        best = Math.min(best, distToV[y] + depth+1);
+                  }
+               }
+            }
+         }
+         return best == Integer.MAX_VALUE ? -1 : best;
+
+      }
 
-   // a helper function to find shortest ancetral path
-   private void shortestAncestralPath(Iterable<Integer> v, Iterable<Integer> w) {
+      private void nextEpoch() {
+         if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(markedV, 0);
+            Arrays.fill(markedW, 0);
+            epoch = 1;
+         }
+      }
 
-      // run bfs from v
-      bfs(v);
-      boolean[] markedV = marked.clone();
-      int[] distToV = distTo.clone();
+      // expand the level queue[head:end] of one search, queueing the next level
+      // after end and recording vertices already marked by the other search; the new tail
+      private int expand(CompactDigraph G, int[] queue, int head, int end, int[] marked, int[] distTo, int[] markedOther, int[] distToOther) {
+
+         int[] start = G.start, adj = G.adj;
+         int tail = end;
+         for (; head < end; head++) {
+            int x = queue[head];
+            for (int i = start[x]; i < start[x+1]; i++) {
+               int y = adj[i];
+               if (marked[y] != epoch) {
+                  marked[y] = epoch;
+                  distTo[y] = distTo[x]+1;
+                  queue[tail++] = y;
+                  if (markedOther[y] == epoch)
+                     found(y, distTo[y] + distToOther[y]);
+               }
+            }
+         }
+         return tail;
 
-      // run bfs from w
-      bfs(w);
-      boolean[] markedW = marked.clone();
-      int[] distToW = distTo.clone();
-      
-      // find shortest path ancestor
-      ancestor = -1;
-      distance = Integer.MAX_VALUE;
-      for (int i=0; i<G.V(); i++)
-         if (markedV[i] && markedW[i] && distToV[i]+distToW[i]<=distance) {
-            ancestor = i;
-            distance = distToV[i]+distToW[i];
+      }
+
+      // length and ancestor of the last run; length is -1 if there is no ancestor
+      long result() {
+         int length = ancestor == -1 ? -1 : distance;
+         return (long) length << 32 | (ancestor & 0xffffffffL);
+      }
+
+      private void found(int x, int d) {
+         if (d < distance || d == distance && x > ancestor) {
+            ancestor = x;
+            distance = d;
          }
+      }
 
    }
 
@@ -149,4 +612,4 @@ public class SAP {
 
    }
 
-}
\ No newline at end of file
+}
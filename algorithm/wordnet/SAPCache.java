@@ -0,0 +1,261 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, concurrent least-recently-used cache of SAP results. A key is an
+ * unordered pair of vertices or of vertex sets, so (v, w) and (w, v) share an
+ * entry, and a value holds both the length and the ancestor of the pair.
+ *
+ * Entries are spread over independently locked segments, each evicting its own
+ * least recently used entry when full.
+ *
+ * When the graph changes, the cache moves to a new generation, so results still
+ * being computed on the old graph are no longer stored, and the entries whose
+ * vertices are affected by the change are dropped.
+ */
+public class SAPCache {
+
+   private static final int SEGMENTS = 16;
+
+   private final Segment[] segments;
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+   private final LongAdder evictions = new LongAdder();
+   private final AtomicLong generation = new AtomicLong();
+
+   // create a cache of at most capacity entries
+   public SAPCache(int capacity) {
+
+      if (capacity < 1)
+         throw new IllegalArgumentException("Capacity should be at least 1!");
+
+      int segments = Math.min(SEGMENTS, capacity);
+      this.segments = new Segment[segments];
+      for (int i = 0; i < segments; i++)
+         this.segments[i] = new Segment(capacity / segments + (i < capacity % segments ? 1 : 0));
+
+   }
+
+   // number of lookups which found an entry
+   public long hits() {
+      return hits.sum();
+   }
+
+   // number of lookups which found no entry
+   public long misses() {
+      return misses.sum();
+   }
+
+   // number of entries dropped to make room for new ones
+   public long evictions() {
+      return evictions.sum();
+   }
+
+   // number of entries
+   public int size() {
+      int size = 0;
+      for (Segment segment: segments)
+         size += segment.size();
+      return size;
+   }
+
+   // drop every entry
+   public void clear() {
+      for (Segment segment: segments)
+         segment.clear();
+   }
+
+   // generation of the graph whose results are stored
+   long generation() {
+      return generation.get();
+   }
+
+   // start a new generation, refusing results of earlier ones from now on
+   long nextGeneration() {
+      return generation.incrementAndGet();
+   }
+
+   // drop every entry with a vertex for which affected is true; the number dropped
+   int invalidate(IntPredicate affected) {
+      int dropped = 0;
+      for (Segment segment: segments)
+         dropped += segment.invalidate(affected);
+      return dropped;
+   }
+
+   // key of the pair (v, w)
+   static Key key(int v, int w) {
+      return new Key(new int[]{Math.min(v, w)}, new int[]{Math.max(v, w)});
+   }
+
+   // key of the pair of sets v[vlo:vhi] and w[wlo:whi], which are not modified
+   static Key key(int[] v, int vlo, int vhi, int[] w, int wlo, int whi) {
+      int[] a = canonical(v, vlo, vhi);
+      int[] b = canonical(w, wlo, whi);
+      return compare(a, b) <= 0 ? new Key(a, b) : new Key(b, a);
+   }
+
+   // the packed result cached for key, or null
+   Long get(Key key) {
+      Long result = segmentOf(key).get(key);
+      if (result == null)
+         misses.increment();
+      else
+         hits.increment();
+      return result;
+   }
+
+   // store a result computed in the given generation, unless it is outdated
+   void put(Key key, long result, long generation) {
+      segmentOf(key).put(key, result, generation);
+   }
+
+   private Segment segmentOf(Key key) {
+      int h = key.hash ^ (key.hash >>> 16);
+      return segments[(h & 0x7fffffff) % segments.length];
+   }
+
+   // sorted copy of a[lo:hi] without duplicates
+   private static int[] canonical(int[] a, int lo, int hi) {
+      int n = hi - lo;
+      int[] b = Arrays.copyOfRange(a, lo, hi);
+      Arrays.sort(b);
+      int m = 0;
+      for (int i = 0; i < n; i++)
+         if (m == 0 || b[i] != b[m-1])
+            b[m++] = b[i];
+      return m == n ? b : Arrays.copyOf(b, m);
+   }
+
+   private static int compare(int[] a, int[] b) {
+      for (int i = 0; i < a.length && i < b.length; i++)
+         if (a[i] != b[i])
+            return Integer.compare(a[i], b[i]);
+      return Integer.compare(a.length, b.length);
+   }
+
+   /**
+    * An unordered pair of canonical vertex sets, stored in a fixed order.
+    */
+   static final class Key {
+
+      private final int[] a;
+      private final int[] b;
+      private final int hash;
+
+      private Key(int[] a, int[] b) {
+         this.a = a;
+         this.b = b;
+         this.hash = 31 * Arrays.hashCode(a) + Arrays.hashCode(b);
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (this == other) return true;
+         if (!(other instanceof Key)) return false;
+         Key that = (Key) other;
+         return hash == that.hash && Arrays.equals(a, that.a) && Arrays.equals(b, that.b);
+      }
+
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+
+      // does either set contain a vertex for which p is true?
+      boolean contains(IntPredicate p) {
+         for (int v: a)
+            if (p.test(v)) return true;
+         for (int v: b)
+            if (p.test(v)) return true;
+         return false;
+      }
+
+   }
+
+   // one lock-protected access-ordered map
+   private final class Segment {
+
+      private final ReentrantLock lock = new ReentrantLock();
+      private final LinkedHashMap<Key, Long> map;
+
+      Segment(int capacity) {
+         map = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+               if (size() <= capacity)
+                  return false;
+               evictions.increment();
+               return true;
+            }
+         };
+      }
+
+      Long get(Key key) {
+         lock.lock();
+         try {
+            return map.get(key);
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+
+      // the generation is checked under the lock, so a result is either refused
+      // or stored before an invalidation of the segment which would drop it
+      void put(Key key, long result, long generation) {
+         lock.lock();
+         try {
+            if (generation == SAPCache.this.generation.get())
+               map.put(key, result);
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+
+      int invalidate(IntPredicate affected) {
+         lock.lock();
+         try {
+            int dropped = 0;
+            for (Iterator<Key> it = map.keySet().iterator(); it.hasNext(); )
+               if (it.next().contains(affected)) {
+                  it.remove();
+                  dropped++;
+               }
+            return dropped;
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+
+      int size() {
+         lock.lock();
+         try {
+            return map.size();
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+
+      void clear() {
+         lock.lock();
+         try {
+            map.clear();
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+
+   }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Topological order of a compact digraph by Kahn's algorithm: vertices are
+ * removed once no remaining edge points to them, so the search needs no
+ * recursion and runs in time linear in V + E whatever the depth of the graph.
+ * Vertices left over at the end lie on or above a cycle.
+ */
+public class TopologicalOrder {
+
+   private final int[] order;    // every edge v->w has v before w; null if there is a cycle
+   private final int roots;      // vertices with no outgoing edge
+
+   // order the vertices of G
+   public TopologicalOrder(CompactDigraph G) {
+
+      if (G == null)
+         throw new IllegalArgumentException("Input graph is null!");
+
+      int V = G.V();
+      int[] start = G.start, adj = G.adj;
+
+      int[] indegree = new int[V];
+      for (int i = 0; i < start[V]; i++)
+         indegree[adj[i]]++;
+
+      // the queue of vertices with no incoming edge left is the order itself
+      int[] queue = new int[V];
+      int head = 0, tail = 0;
+      int count = 0;
+      for (int v = 0; v < V; v++) {
+         if (indegree[v] == 0)
+            queue[tail++] = v;
+         if (start[v] == start[v+1])
+            count++;
+      }
+      while (head < tail) {
+         int v = queue[head++];
+         for (int i = start[v]; i < start[v+1]; i++)
+            if (--indegree[adj[i]] == 0)
+               queue[tail++] = adj[i];
+      }
+
+      order = tail == V ? queue : null;
+      roots = count;
+
+   }
+
+   // is the digraph acyclic?
+   public boolean isDAG() {
+      return order != null;
+   }
+
+   // number of vertices with outdegree 0, the roots of a hypernym DAG
+   public int roots() {
+      return roots;
+   }
+
+   // the vertices in topological order; null if the digraph has a cycle
+   int[] order() {
+      return order;
+   }
+
+}
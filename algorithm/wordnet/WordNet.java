@@ -1,140 +1,367 @@
-import edu.princeton.cs.algs4.In;
-import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.StdIn;
 import edu.princeton.cs.algs4.StdOut;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Queue;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.ArrayList;
-
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WordNet answers queries through a thread-safe SAP, so one instance can serve
+ * concurrent distance() and sap() calls.
+ *
+ * Updates are copy-on-write: an update builds a new state next to the current
+ * one, sharing what it does not change, and publishes it at once, so a query
+ * sees the wordnet either before or after an update and never waits for one.
+ * Updates take a lock, one at a time.
+ */
 public class WordNet {
 
-   private final HashMap<Integer, String> idToSynset;
-   private final HashMap<String, List<Integer>> wordToId;
-   private final Digraph G;
-   private boolean[] marked;
-   private boolean[] instack;
-   private int[] distTo;
-   private SAP sap;
+   private final SAPCache cache;      // null if results are not cached
+   private final ReentrantLock updates = new ReentrantLock();
+   volatile State state;
 
    // constructor takes the name of the two input files
    public WordNet(String synsets, String hypernyms) {
 
-      if (synsets==null || hypernyms==null)
-         throw new IllegalArgumentException();
+      this(synsets, hypernyms, null);
 
-      // load synsets into dictionary
-      In in = new In(synsets);
-      idToSynset = new HashMap<>();
-      wordToId = new HashMap<>();
-      while (in.hasNextLine()) {
-         String[] line = in.readLine().split(",");
-         int id = Integer.parseInt(line[0]);
-         String synset = line[1];
-         idToSynset.put(id, synset);
-         for (String word: synset.split("\\s+")) {
-            if (!wordToId.containsKey(word))
-               wordToId.put(word, new ArrayList<>());
-            wordToId.get(word).add(id);
-         }
-      }
+   }
 
-      // create a digraph
-      G = new Digraph(idToSynset.size());
-      in = new In(hypernyms);
-      int numberOfLines = 0;
-      while (in.hasNextLine()) {
-         numberOfLines++;
-         String[] line = in.readLine().split(",");
-         int v = Integer.parseInt(line[0]);
-         for (int i=1; i<line.length; i++) {
-            int w = Integer.parseInt(line[i]);
-            G.addEdge(v, w);
-         }
-      }
+   // remember distance() and sap() results for pairs of synset sets in the given cache
+   public WordNet(String synsets, String hypernyms, SAPCache cache) {
+
+      this(synsets, hypernyms, cache, false);
+
+   }
 
-      // check if there are more than one root
-      if (G.V() - numberOfLines > 1)
-         throw new IllegalArgumentException("There are more than one root!");
+   // if precompute is true, label every synset with its ancestors up front,
+   // trading memory and a one-off build for queries without graph searches
+   public WordNet(String synsets, String hypernyms, boolean precompute) {
 
-      // check if G is DAG
-      if (!isDAG())
+      this(synsets, hypernyms, null, precompute);
+
+   }
+
+   private WordNet(String synsets, String hypernyms, SAPCache cache, boolean precompute) {
+
+      if (synsets==null || hypernyms==null)
+         throw new IllegalArgumentException();
+
+      // load synsets into dictionary and create a digraph, in parallel
+      WordNetLoader loader = new WordNetLoader(synsets, hypernyms);
+      CompactDigraph G = loader.G;
+
+      // check if G is a DAG with exactly one root, without recursion
+      TopologicalOrder topological = new TopologicalOrder(G);
+      if (topological.roots() != 1)
+         throw new IllegalArgumentException("There should be exactly one root, found " + topological.roots() + "!");
+      if (!topological.isDAG())
          throw new IllegalArgumentException("Graph is not a DAG");
 
       // create a SAP object of which length() and ancestor() methods are called
-      sap = new SAP(G);
+      AncestorLabels labels = precompute ? new AncestorLabels(G, topological) : null;
+      this.cache = precompute ? null : cache;
+      this.state = new State(loader.synsets, loader.nouns, G, labels, this.cache);
+
+   }
+
+   // assemble a wordnet from the parts of a snapshot, already checked when it was written
+   WordNet(String[] idToSynset, NounDictionary wordToId, CompactDigraph G, AncestorLabels labels, SAPCache cache) {
+
+      this.cache = labels == null ? cache : null;
+      this.state = new State(idToSynset, wordToId, G, labels, this.cache);
+
+   }
+
+   // read a wordnet written by save(), without parsing the text files again
+   public static WordNet load(String filename) {
+
+      return WordNetSnapshot.load(filename, null);
+
+   }
+
+   // write the wordnet, and its labels if precomputed, to a binary snapshot
+   public void save(String filename) {
+
+      WordNetSnapshot.save(this, filename);
 
    }
 
    // returns all WordNet nouns
    public Iterable<String> nouns() {
 
-      return wordToId.keySet();
+      return state.wordToId;
 
    }
 
    // is the word a WordNet noun?
    public boolean isNoun(String word) {
 
-      if (word == null)
-         throw new IllegalArgumentException("Input argument is null!");
-
-      return wordToId.containsKey(word);
+      return state.wordToId.contains(word);
 
    }
 
    // distance between nounA and nounB
    public int distance(String nounA, String nounB) {
 
-      if (!isNoun(nounA) || !isNoun(nounB))
+      State state = this.state;
+      NounDictionary wordToId = state.wordToId;
+      int a = wordToId.indexOf(nounA);
+      int b = wordToId.indexOf(nounB);
+      if (a == -1 || b == -1)
          throw new IllegalArgumentException("Input words are not in the wordnet");
 
-      Iterable<Integer> a = wordToId.get(nounA);
-      Iterable<Integer> b = wordToId.get(nounB);
-      return sap.length(a, b);
+      int[] ids = wordToId.ids, idStart = wordToId.idStart;
+      return state.sap.length(ids, idStart[a], idStart[a+1], ids, idStart[b], idStart[b+1]);
+
+   }
+
+   // distances between every pair of the given nouns, as a symmetric matrix
+   public int[][] distances(String[] nouns) {
+
+      if (nouns == null)
+         throw new IllegalArgumentException("Input argument is null!");
+
+      State state = this.state;
+      NounDictionary wordToId = state.wordToId;
+
+      int n = nouns.length;
+      int[] lo = new int[n];
+      int[] hi = new int[n];
+      for (int k = 0; k < n; k++) {
+         int i = wordToId.indexOf(nouns[k]);
+         if (i == -1)
+            throw new IllegalArgumentException("Input words are not in the wordnet");
+         lo[k] = wordToId.idStart[i];
+         hi[k] = wordToId.idStart[i+1];
+      }
+      return state.sap.lengths(wordToId.ids, lo, hi);
+
+   }
+
+   // distances from noun to each of the others, from a single search upward from noun
+   public int[] distances(String noun, String[] others) {
+
+      if (others == null)
+         throw new IllegalArgumentException("Input argument is null!");
+
+      State state = this.state;
+      NounDictionary wordToId = state.wordToId;
+
+      int a = wordToId.indexOf(noun);
+      if (a == -1)
+         throw new IllegalArgumentException("Input words are not in the wordnet");
+      int n = others.length;
+      int[] lo = new int[n];
+      int[] hi = new int[n];
+      for (int k = 0; k < n; k++) {
+         int i = wordToId.indexOf(others[k]);
+         if (i == -1)
+            throw new IllegalArgumentException("Input words are not in the wordnet");
+         lo[k] = wordToId.idStart[i];
+         hi[k] = wordToId.idStart[i+1];
+      }
+      int[] ids = wordToId.ids, idStart = wordToId.idStart;
+      return state.sap.lengths(ids, idStart[a], idStart[a+1], ids, lo, hi);
+
+   }
+
+   // the k nouns nearest to noun, other than noun itself, nearest first
+   public String[] nearest(String noun, int k) {
+
+      if (k < 0)
+         throw new IllegalArgumentException("k should not be negative!");
+
+      State state = this.state;
+      NounDictionary wordToId = state.wordToId;
+      int a = wordToId.indexOf(noun);
+      if (a == -1)
+         throw new IllegalArgumentException("Input words are not in the wordnet");
+
+      // built on first use; racing threads build equal indexes
+      NearestNouns index = state.nearestNouns;
+      if (index == null)
+         state.nearestNouns = index = new NearestNouns(state.G, wordToId);
+
+      long[] profile = state.sap.profile(wordToId.ids, wordToId.idStart[a], wordToId.idStart[a+1]);
+      int[] ranks = index.nearest(profile, k, a);
+      String[] nearest = new String[ranks.length];
+      for (int i = 0; i < ranks.length; i++)
+         nearest[i] = wordToId.noun(ranks[i]);
+      return nearest;
 
    }
 
    // common ancestor of nounA and nounB in a shortest ancestral path
    public String sap(String nounA, String nounB) {
 
-      if (!isNoun(nounA) || !isNoun(nounB))
+      State state = this.state;
+      NounDictionary wordToId = state.wordToId;
+      int a = wordToId.indexOf(nounA);
+      int b = wordToId.indexOf(nounB);
+      if (a == -1 || b == -1)
          throw new IllegalArgumentException("Input words are not in word net");
 
-      Iterable<Integer> a = wordToId.get(nounA);
-      Iterable<Integer> b = wordToId.get(nounB);
-      return idToSynset.get(sap.ancestor(a, b));
+      int[] ids = wordToId.ids, idStart = wordToId.idStart;
+      int ancestor = state.sap.ancestor(ids, idStart[a], idStart[a+1], ids, idStart[b], idStart[b+1]);
+      return ancestor == -1 ? null : state.idToSynset[ancestor];
 
    }
 
-   // check if the wordnet is acyclic
-   private boolean isDAG() {
-
-      marked = new boolean[G.V()];
-      instack = new boolean[G.V()];
-      for (int v = 0; v < G.V(); v++)
-         if (!marked[v] && !acyclic(v))
-            return false;
-      return true;
+   // add a synset of the given whitespace separated nouns as a hyponym of each of the
+   // given synsets, which keeps a single root; the id of the new synset
+   public int addSynset(String nouns, int... hypernyms) {
+
+      if (nouns == null || hypernyms == null)
+         throw new IllegalArgumentException("Input arguments are null references!");
+      String[] words = nouns.trim().split("\\s+");
+      if (words[0].isEmpty())
+         throw new IllegalArgumentException("A synset needs at least one noun!");
+      if (hypernyms.length == 0)
+         throw new IllegalArgumentException("A synset needs a hypernym, the wordnet has a single root!");
+
+      updates.lock();
+      try {
+         State s = state;
+         int V = s.G.V();
+         for (int w: hypernyms)
+            if (w < 0 || w >= V)
+               throw new IllegalArgumentException("Synset id " + w + " is out of range!");
+
+         String[] idToSynset = Arrays.copyOf(s.idToSynset, V+1);
+         idToSynset[V] = String.join(" ", words);
+         NounDictionary wordToId = s.wordToId;
+         for (String word: words)
+            wordToId = wordToId.withNoun(word, V);
+
+         // nothing can reach the new synset, so no cycle is closed and no
+         // cached result or label changes but its own
+         CompactDigraph G = s.G.withEdges(V+1, V, hypernyms.clone());
+         AncestorLabels labels = null;
+         if (s.labels != null) {
+            boolean[] affected = new boolean[V+1];
+            affected[V] = true;
+            labels = s.labels.update(G, affected);
+         }
+         state = new State(idToSynset, wordToId, G, labels, cache);
+         return V;
+      }
+      finally {
+         updates.unlock();
+      }
 
    }
 
-   // depth-first search to check acyclicity
-   private boolean acyclic(int v) {
+   // add noun to the synset with the given id
+   public void addNoun(String noun, int id) {
 
-      marked[v] = true;
-      instack[v] = true;
-      for (int w: G.adj(v)) {
-         if (!marked[w]) {
-            if (!acyclic(w)) return false;
-         }
-         else {
-            if (instack[w]) return false;
+      if (noun == null || noun.isEmpty() || noun.chars().anyMatch(Character::isWhitespace))
+         throw new IllegalArgumentException("A noun should be a non-empty word!");
+
+      updates.lock();
+      try {
+         State s = state;
+         if (id < 0 || id >= s.G.V())
+            throw new IllegalArgumentException("Synset id " + id + " is out of range!");
+
+         NounDictionary wordToId = s.wordToId.withNoun(noun, id);
+         if (wordToId == s.wordToId)
+            return;
+         String[] idToSynset = s.idToSynset.clone();
+         idToSynset[id] = idToSynset[id] + " " + noun;
+
+         // the digraph is unchanged, and so are its searches and cached results
+         state = new State(idToSynset, wordToId, s.G, s.labels, s.sap);
+      }
+      finally {
+         updates.unlock();
+      }
+
+   }
+
+   // add a hypernym edge from synset v to synset w, unless it would close a cycle
+   public void addHypernym(int v, int w) {
+
+      updates.lock();
+      try {
+         State s = state;
+         CompactDigraph G = s.G;
+         int V = G.V();
+         if (v < 0 || v >= V || w < 0 || w >= V)
+            throw new IllegalArgumentException("Synset id is out of range!");
+         for (int i = G.start[v]; i < G.start[v+1]; i++)
+            if (G.adj[i] == w)
+               return;
+
+         // the edge closes a cycle exactly when v is an ancestor of w
+         if (reaches(G, w, v))
+            throw new IllegalArgumentException("Edge " + v + "->" + w + " would create a cycle!");
+
+         // v and its descendants have new ancestors; nothing else changes
+         boolean[] affected = new boolean[V];
+         reaches(G.reverse(), v, affected);
+         if (cache != null) {
+            cache.nextGeneration();
+            cache.invalidate(x -> affected[x]);
          }
+
+         CompactDigraph H = G.withEdges(V, v, new int[]{w});
+         AncestorLabels labels = s.labels == null ? null : s.labels.update(H, affected);
+         state = new State(s.idToSynset, s.wordToId, H, labels, cache);
+      }
+      finally {
+         updates.unlock();
+      }
+
+   }
+
+   // is t reachable from s in G?
+   private static boolean reaches(CompactDigraph G, int s, int t) {
+      boolean[] marked = new boolean[G.V()];
+      reaches(G, s, marked);
+      return marked[t];
+   }
+
+   // mark every vertex reachable from s in G, by breadth first search
+   private static void reaches(CompactDigraph G, int s, boolean[] marked) {
+      int[] queue = new int[G.V()];
+      int head = 0, tail = 0;
+      marked[s] = true;
+      queue[tail++] = s;
+      while (head < tail) {
+         int x = queue[head++];
+         for (int i = G.start[x]; i < G.start[x+1]; i++)
+            if (!marked[G.adj[i]]) {
+               marked[G.adj[i]] = true;
+               queue[tail++] = G.adj[i];
+            }
+      }
+   }
+
+   /**
+    * Everything a query reads, never modified once published: an update
+    * replaces the whole state.
+    */
+   static final class State {
+
+      final String[] idToSynset;
+      final NounDictionary wordToId;
+      final CompactDigraph G;
+      final AncestorLabels labels;    // null unless precomputed
+      final SAP sap;
+      volatile NearestNouns nearestNouns;    // null until nearest() is first called
+
+      State(String[] idToSynset, NounDictionary wordToId, CompactDigraph G, AncestorLabels labels, SAPCache cache) {
+         this(idToSynset, wordToId, G, labels, new SAP(G, labels == null ? cache : null, labels));
+      }
+
+      State(String[] idToSynset, NounDictionary wordToId, CompactDigraph G, AncestorLabels labels, SAP sap) {
+         this.idToSynset = idToSynset;
+         this.wordToId = wordToId;
+         this.G = G;
+         this.labels = labels;
+         this.sap = sap;
       }
-      instack[v] = false;
-      return true;
 
    }
 
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel loader of the synsets and hypernyms files. Both files are mapped
+ * and cut into chunks at line boundaries, and the chunks are scanned byte by
+ * byte in parallel, the two files at the same time. The hypernym edges are
+ * then gathered into compressed sparse row arrays by parallel counting and
+ * scattering, and every adjacency list is sorted, so the digraph does not
+ * depend on the order in which the chunks were scanned.
+ */
+public class WordNetLoader {
+
+   // bytes scanned by one task, before moving to the end of the line
+   private static final int CHUNK = 1 << 18;
+
+   // vertices whose adjacency lists are sorted by one task
+   private static final int VERTICES = 1 << 12;
+
+   final String[] synsets;          // synsets[id] is the nouns of synset id
+   final NounDictionary nouns;
+   final CompactDigraph G;
+
+   // load the two input files
+   public WordNetLoader(String synsets, String hypernyms) {
+
+      if (synsets == null || hypernyms == null)
+         throw new IllegalArgumentException("Input file names are null!");
+
+      ByteBuffer synsetBytes = map(synsets);
+      ByteBuffer hypernymBytes = map(hypernyms);
+
+      // the synsets and their dictionary are built while the hypernyms are scanned
+      CompletableFuture<String[]> parsed = CompletableFuture.supplyAsync(() -> parseSynsets(synsetBytes));
+      CompletableFuture<NounDictionary> dictionary = parsed.thenApplyAsync(NounDictionary::new);
+      Edges[] edges;
+      try {
+         int[] bounds = chunks(hypernymBytes);
+         edges = IntStream.range(0, bounds.length-1).parallel()
+                          .mapToObj(c -> parseHypernyms(hypernymBytes, bounds[c], bounds[c+1]))
+                          .toArray(Edges[]::new);
+         this.synsets = parsed.join();
+         this.nouns = dictionary.join();
+      }
+      catch (CompletionException e) {
+         // rethrow what the scan threw, eg an IllegalArgumentException for a malformed line
+         if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException) e.getCause();
+         throw e;
+      }
+
+      this.G = toCompactDigraph(this.synsets.length, edges);
+
+   }
+
+   // map a whole file read-only
+   private static ByteBuffer map(String filename) {
+
+      try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+         if (channel.size() > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("File " + filename + " is too large!");
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+
+   }
+
+   // chunk c of the file is bytes[bounds[c]:bounds[c+1]], each ending with a line
+   private static int[] chunks(ByteBuffer bytes) {
+
+      int n = bytes.limit();
+      int[] bounds = new int[n / CHUNK + 2];
+      int m = 1;
+      for (int pos = CHUNK; pos < n; pos += CHUNK) {
+         int end = Math.max(pos, bounds[m-1]);
+         while (end < n && bytes.get(end) != '\n')
+            end++;
+         if (end < n && end+1 > bounds[m-1])
+            bounds[m++] = end+1;
+      }
+      if (bounds[m-1] < n || m == 1)
+         bounds[m++] = n;
+      return Arrays.copyOf(bounds, m);
+
+   }
+
+   // synsets by id; ids must run from 0 to the number of lines - 1
+   private static String[] parseSynsets(ByteBuffer bytes) {
+
+      int[] bounds = chunks(bytes);
+      Synsets[] parts = IntStream.range(0, bounds.length-1).parallel()
+                                 .mapToObj(c -> parseSynsets(bytes, bounds[c], bounds[c+1]))
+                                 .toArray(Synsets[]::new);
+
+      int V = 0;
+      for (Synsets part: parts)
+         V += part.n;
+      String[] synsets = new String[V];
+      for (Synsets part: parts)
+         for (int i = 0; i < part.n; i++) {
+            int id = part.ids[i];
+            if (id >= V || synsets[id] != null)
+               throw new IllegalArgumentException("Synset id " + id + " is out of range or repeated!");
+            synsets[id] = part.synsets[i];
+         }
+      return synsets;
+
+   }
+
+   // scan the lines "id,nouns,gloss" of bytes[from:to]
+   private static Synsets parseSynsets(ByteBuffer bytes, int from, int to) {
+
+      byte[] b = new byte[to - from];
+      bytes.duplicate().position(from).get(b);
+
+      Synsets part = new Synsets();
+      int i = 0;
+      while (i < b.length) {
+         int end = lineEnd(b, i);
+         if (end > i) {
+            int comma = indexOf(b, i, end, (byte) ',');
+            int id = parseInt(b, i, comma);
+            if (comma == end)
+               throw new IllegalArgumentException("Malformed line: synset " + id + " has no nouns!");
+            int next = indexOf(b, comma+1, end, (byte) ',');
+            part.add(id, new String(b, comma+1, next - comma - 1, StandardCharsets.UTF_8));
+         }
+         i = skipNewline(b, end);
+      }
+      return part;
+
+   }
+
+   // scan the lines "v,w1,w2,..." of bytes[from:to]
+   private static Edges parseHypernyms(ByteBuffer bytes, int from, int to) {
+
+      byte[] b = new byte[to - from];
+      bytes.duplicate().position(from).get(b);
+
+      Edges part = new Edges();
+      int i = 0;
+      while (i < b.length) {
+         int end = lineEnd(b, i);
+         if (end > i) {
+            int comma = indexOf(b, i, end, (byte) ',');
+            int v = parseInt(b, i, comma);
+            while (comma < end) {
+               int next = indexOf(b, comma+1, end, (byte) ',');
+               part.add(v, parseInt(b, comma+1, next));
+               comma = next;
+            }
+         }
+         i = skipNewline(b, end);
+      }
+      return part;
+
+   }
+
+   // gather the edges of all chunks into compressed sparse row form
+   private static CompactDigraph toCompactDigraph(int V, Edges[] edges) {
+
+      // outdegrees, counted by all chunks at once
+      AtomicIntegerArray degree = new AtomicIntegerArray(V);
+      Arrays.stream(edges).parallel().forEach(part -> {
+         for (int i = 0; i < part.n; i++) {
+            int v = part.from[i], w = part.to[i];
+            if (v < 0 || v >= V || w < 0 || w >= V)
+               throw new IllegalArgumentException("Edge " + v + "->" + w + " has a vertex out of range!");
+            degree.incrementAndGet(v);
+         }
+      });
+
+      int[] start = new int[V+1];
+      for (int v = 0; v < V; v++)
+         start[v+1] = start[v] + degree.get(v);
+
+      // scatter every edge to the next free slot of its source
+      int[] adj = new int[start[V]];
+      AtomicIntegerArray cursor = new AtomicIntegerArray(Arrays.copyOf(start, V));
+      Arrays.stream(edges).parallel().forEach(part -> {
+         for (int i = 0; i < part.n; i++)
+            adj[cursor.getAndIncrement(part.from[i])] = part.to[i];
+      });
+
+      // slots were taken in no particular order
+      IntStream.range(0, (V + VERTICES - 1) / VERTICES).parallel().forEach(c -> {
+         for (int v = c * VERTICES; v < Math.min(V, (c+1) * VERTICES); v++)
+            Arrays.sort(adj, start[v], start[v+1]);
+      });
+
+      return new CompactDigraph(V, start, adj);
+
+   }
+
+   // end of the line starting at i, before any carriage return
+   private static int lineEnd(byte[] b, int i) {
+      int end = indexOf(b, i, b.length, (byte) '\n');
+      return end > i && b[end-1] == '\r' ? end-1 : end;
+   }
+
+   private static int skipNewline(byte[] b, int end) {
+      while (end < b.length && (b[end] == '\r' || b[end] == '\n'))
+         end++;
+      return end;
+   }
+
+   // first index of c in b[from:to], or to
+   private static int indexOf(byte[] b, int from, int to, byte c) {
+      while (from < to && b[from] != c)
+         from++;
+      return from;
+   }
+
+   // the non-negative decimal integer b[from:to]
+   private static int parseInt(byte[] b, int from, int to) {
+      if (from == to)
+         throw new IllegalArgumentException("Malformed line: missing number!");
+      long x = 0;
+      for (int i = from; i < to; i++) {
+         int d = b[i] - '0';
+         if (d < 0 || d > 9 || (x = 10*x + d) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Malformed line: bad number " + new String(b, from, to - from, StandardCharsets.UTF_8));
+      }
+      return (int) x;
+   }
+
+   // synsets scanned by one task
+   private static final class Synsets {
+      int[] ids = new int[256];
+      String[] synsets = new String[256];
+      int n;
+
+      void add(int id, String synset) {
+         if (n == ids.length) {
+            ids = Arrays.copyOf(ids, 2*n);
+            synsets = Arrays.copyOf(synsets, 2*n);
+         }
+         ids[n] = id;
+         synsets[n++] = synset;
+      }
+   }
+
+   // edges scanned by one task
+   private static final class Edges {
+      int[] from = new int[256];
+      int[] to = new int[256];
+      int n;
+
+      void add(int v, int w) {
+         if (n == from.length) {
+            from = Arrays.copyOf(from, 2*n);
+            to = Arrays.copyOf(to, 2*n);
+         }
+         from[n] = v;
+         to[n++] = w;
+      }
+   }
+
+}
@@ -0,0 +1,203 @@
+import edu.princeton.cs.algs4.StdIn;
+import edu.princeton.cs.algs4.StdOut;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of a WordNet, written once and then loaded by mapping the
+ * file instead of parsing and checking the text files on every start.
+ *
+ * After a header of eight ints, the file holds int sections (the digraph in
+ * compressed sparse row form, the offsets of the synsets in the synset pool,
+ * the offsets of the sorted nouns in the noun pool, the synset ids of each
+ * noun and, if precomputed, the ancestor labels) followed by the two pools
+ * of chars. Values are in the byte order of the machine that wrote the file,
+ * which the magic number tells on load.
+ *
+ * Loading maps the file and copies every section onto the heap in bulk. The
+ * digraph, the labels and the dictionary are plain arrays, which the query
+ * loops index directly, so they are not read through buffer views; in native
+ * order the copy is a straight memory copy, without swapping bytes.
+ */
+public class WordNetSnapshot {
+
+   private static final int MAGIC = 0x574e5331;    // "WNS1"
+   private static final int HEADER = 8;
+
+   // write the parts of the wordnet to the given file
+   static void save(WordNet wordnet, String filename) {
+
+      if (wordnet == null || filename == null)
+         throw new IllegalArgumentException("Input arguments are null references!");
+
+      WordNet.State state = wordnet.state;
+      CompactDigraph G = state.G;
+      NounDictionary nouns = state.wordToId;
+      AncestorLabels labels = state.labels;
+      int V = G.V();
+
+      // synsets by id, back to back
+      int[] synsetStart = new int[V+1];
+      StringBuilder synsetPool = new StringBuilder();
+      for (int v = 0; v < V; v++) {
+         synsetPool.append(state.idToSynset[v]);
+         synsetStart[v+1] = synsetPool.length();
+      }
+
+      try (FileChannel channel = FileChannel.open(Paths.get(filename),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+         int[] header = {MAGIC, V, G.E(), synsetPool.length(), nouns.size(), nouns.pool.length,
+                         nouns.ids.length, labels == null ? -1 : labels.size()};
+         writeInts(channel, header);
+         writeInts(channel, G.start);
+         writeInts(channel, G.adj);
+         writeInts(channel, synsetStart);
+         writeInts(channel, nouns.nounStart);
+         writeInts(channel, nouns.idStart);
+         writeInts(channel, nouns.ids);
+         if (labels != null) {
+            writeInts(channel, labels.start);
+            writeInts(channel, labels.vertex);
+            writeInts(channel, labels.dist);
+         }
+         writeChars(channel, synsetPool);
+         writeChars(channel, CharBuffer.wrap(nouns.pool));
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+
+   }
+
+   // read a wordnet written by save(); results are cached in cache unless it is null or labels were saved
+   static WordNet load(String filename, SAPCache cache) {
+
+      if (filename == null)
+         throw new IllegalArgumentException("Input file name is null!");
+
+      try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+         ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         if (buffer.remaining() < 4 * HEADER)
+            throw new IllegalArgumentException("Not a WordNet snapshot!");
+
+         // a file written on a machine of the other byte order is read swapped
+         buffer.order(ByteOrder.nativeOrder());
+         int magic = buffer.getInt(0);
+         if (magic == Integer.reverseBytes(MAGIC))
+            buffer.order(buffer.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+         else if (magic != MAGIC)
+            throw new IllegalArgumentException("Not a WordNet snapshot!");
+         IntBuffer ints = buffer.asIntBuffer();
+         ints.get();
+         int V = ints.get();
+         int E = ints.get();
+         int synsetChars = ints.get();
+         int nouns = ints.get();
+         int nounChars = ints.get();
+         int idCount = ints.get();
+         int labelSize = ints.get();
+         if (V < 0 || E < 0 || synsetChars < 0 || nouns < 0 || nounChars < 0 || idCount < 0 || labelSize < -1)
+            throw new IllegalArgumentException("Corrupted snapshot header!");
+
+         long intCount = HEADER + (V+1L) + E + (V+1L) + 2 * (nouns+1L) + idCount
+                       + (labelSize == -1 ? 0 : (V+1L) + 2L * labelSize);
+         if (channel.size() != 4 * intCount + 2L * synsetChars + 2L * nounChars)
+            throw new IllegalArgumentException("Corrupted snapshot: unexpected file size!");
+
+         // the int sections are copied out of the mapping in bulk
+         int[] start = readInts(ints, V+1);
+         int[] adj = readInts(ints, E);
+         int[] synsetStart = readInts(ints, V+1);
+         int[] nounStart = readInts(ints, nouns+1);
+         int[] idStart = readInts(ints, nouns+1);
+         int[] ids = readInts(ints, idCount);
+         AncestorLabels labels = null;
+         if (labelSize != -1) {
+            int[] labelStart = readInts(ints, V+1);
+            int[] vertex = readInts(ints, labelSize);
+            int[] dist = readInts(ints, labelSize);
+            labels = new AncestorLabels(V, labelStart, vertex, dist);
+         }
+
+         buffer.position(4 * ints.position());
+         CharBuffer chars = buffer.slice().order(buffer.order()).asCharBuffer();
+         char[] synsetPool = new char[synsetChars];
+         char[] nounPool = new char[nounChars];
+         chars.get(synsetPool);
+         chars.get(nounPool);
+
+         // the noun pool is used as is; only the synsets become strings
+         String[] idToSynset = new String[V];
+         for (int v = 0; v < V; v++)
+            idToSynset[v] = new String(synsetPool, synsetStart[v], synsetStart[v+1] - synsetStart[v]);
+         NounDictionary wordToId = new NounDictionary(nounPool, nounStart, idStart, ids);
+
+         return new WordNet(idToSynset, wordToId, new CompactDigraph(V, start, adj), labels, cache);
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+
+   }
+
+   private static void writeInts(FileChannel channel, int[] a) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.nativeOrder());
+      IntBuffer ints = buffer.asIntBuffer();
+      for (int i = 0; i < a.length; ) {
+         int k = Math.min(ints.capacity(), a.length - i);
+         ints.clear();
+         ints.put(a, i, k);
+         buffer.clear().limit(4 * k);
+         while (buffer.hasRemaining())
+            channel.write(buffer);
+         i += k;
+      }
+   }
+
+   private static void writeChars(FileChannel channel, CharSequence s) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.nativeOrder());
+      CharBuffer chars = buffer.asCharBuffer();
+      for (int i = 0; i < s.length(); ) {
+         int k = Math.min(chars.capacity(), s.length() - i);
+         chars.clear();
+         chars.append(s, i, i + k);
+         buffer.clear().limit(2 * k);
+         while (buffer.hasRemaining())
+            channel.write(buffer);
+         i += k;
+      }
+   }
+
+   private static int[] readInts(IntBuffer ints, int length) {
+      int[] a = new int[length];
+      ints.get(a);
+      return a;
+   }
+
+   // client: write a snapshot, or answer noun pairs from standard input with one
+   //   synsets.txt hypernyms.txt snapshot [precompute] | snapshot
+   public static void main(String[] args) {
+
+      if (args.length >= 3) {
+         boolean precompute = args.length > 3 && args[3].equals("precompute");
+         new WordNet(args[0], args[1], precompute).save(args[2]);
+         return;
+      }
+
+      WordNet wordnet = WordNet.load(args[0]);
+      while (!StdIn.isEmpty()) {
+         String nounA = StdIn.readString();
+         String nounB = StdIn.readString();
+         StdOut.printf("distance = %d, sap = %s\n", wordnet.distance(nounA, nounB), wordnet.sap(nounA, nounB));
+      }
+
+   }
+
+}